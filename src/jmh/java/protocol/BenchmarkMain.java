@@ -0,0 +1,27 @@
+package protocol;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs JMH benchmarks of this module, always with the GC (allocation) profiler and with the SIMD backends enabled.
+ * <p>
+ * Accepts the same arguments as org.openjdk.jmh.Main, e.g. benchmark name regexp, -p n=1024 or -prof stack.
+ * Every benchmark is parameterized over the parameter set (n, q, eta), see class ParameterSetState.
+ * </p>
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        Options options = new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class)
+                .jvmArgsAppend("--add-modules=jdk.incubator.vector")
+                .build();
+        new Runner(options).run();
+    }
+}
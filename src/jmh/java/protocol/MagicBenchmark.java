@@ -0,0 +1,74 @@
+package protocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reconciliation of a whole polynomial by class Magic, on ints with bitsets and (as a baseline) per BigInteger.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MagicBenchmark extends ParameterSetState {
+
+    private Magic magic;
+    private Engine engine;
+    private Polynomial x;
+    private BigInteger[] xBigIntegers;
+    private long[] randomBits;
+    private long[] hints;
+    private long[] key;
+    private int[] hintsPerCoefficient;
+
+    @Setup
+    public void setUp() {
+        magic = new Magic(bigQ());
+        engine = new Engine();
+        x = randomPolynomial();
+        xBigIntegers = x.toBigIntegers();
+        randomBits = new long[Magic.bitsetLength(n)];
+        hints = new long[Magic.bitsetLength(n)];
+        key = new long[Magic.bitsetLength(n)];
+        hintsPerCoefficient = new int[n];
+        engine.getRandomLongs(hints);
+    }
+
+    @Benchmark
+    public long[] signalPolynomial() {
+        magic.signalPolynomial(engine, x, randomBits, hints);
+        return hints;
+    }
+
+    @Benchmark
+    public long[] robustExtractorPolynomial() {
+        magic.robustExtractorPolynomial(x, hints, key);
+        return key;
+    }
+
+    @Benchmark
+    public int[] signalFunctionPerCoefficient() {
+        for (int i = 0; i < n; i++) {
+            hintsPerCoefficient[i] = magic.signalFunction(engine, xBigIntegers[i]);
+        }
+        return hintsPerCoefficient;
+    }
+
+    @Benchmark
+    public int[] robustExtractorPerCoefficient() {
+        for (int i = 0; i < n; i++) {
+            hintsPerCoefficient[i] = magic.robustExtractor(xBigIntegers[i], (int) (hints[i >>> 6] >>> (i & 63)) & 1);
+        }
+        return hintsPerCoefficient;
+    }
+}
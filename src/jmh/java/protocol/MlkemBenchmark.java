@@ -0,0 +1,81 @@
+package protocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sampling of uniform and noise polynomials by class Mlkem, and batched PRF expansion used for noise.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MlkemBenchmark extends ParameterSetState {
+
+    private Mlkem mlkem;
+    private Engine engine;
+    private Polynomial r;
+    private byte[] seed;
+    private byte[] xofBuffer;
+    private byte[][] seeds;
+    private byte[][] noise;
+
+    @Setup
+    public void setUp() {
+        mlkem = new Mlkem(n, bigQ());
+        engine = new Engine();
+        r = randomPolynomial();
+        seed = new byte[Protocol.PUBLICSEEDBYTESIZE];
+        random.nextBytes(seed);
+        xofBuffer = new byte[mlkem.uniformBufferSize(engine)];
+        seeds = new byte[Workspace.NOISEPOLYNOMIALS][Workspace.NOISESEEDBYTESIZE];
+        noise = new byte[Workspace.NOISEPOLYNOMIALS][n * eta / 4];
+        for (byte[] noiseSeed : seeds) {
+            random.nextBytes(noiseSeed);
+        }
+        for (byte[] bytes : noise) {
+            random.nextBytes(bytes);
+        }
+    }
+
+    @Benchmark
+    public int[] generateUniformPolynomialNtt() {
+        mlkem.generateUniformPolynomialNtt(engine, r, seed, xofBuffer);
+        return r.getCoeffs();
+    }
+
+    @Benchmark
+    public int[] generateCbdPolynomial() {
+        mlkem.generateCbdPolynomial(r, noise[0], eta);
+        return r.getCoeffs();
+    }
+
+    /**
+     * PRF of all Workspace.NOISEPOLYNOMIALS seeds by one batched call.
+     */
+    @Benchmark
+    public byte[][] prfBatched() {
+        engine.prf(noise, seeds, seeds.length);
+        return noise;
+    }
+
+    /**
+     * Same as prfBatched, but one seed after another, as it was done before ParallelShake.
+     */
+    @Benchmark
+    public byte[][] prfOneByOne() {
+        for (int i = 0; i < seeds.length; i++) {
+            engine.prf(noise[i], seeds[i]);
+        }
+        return noise;
+    }
+}
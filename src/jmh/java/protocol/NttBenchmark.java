@@ -0,0 +1,78 @@
+package protocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocating operations of class Ntt (as used by the original code) and their in-place variants.
+ * Operands are in the domain each operation needs, so no lazy transform is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NttBenchmark extends ParameterSetState {
+
+    private Ntt ntt;
+    private Polynomial c;
+    private Polynomial a;
+    private Polynomial b;
+    private Polynomial dst;
+    private Polynomial transformed;
+
+    @Setup
+    public void setUp() {
+        ntt = new Ntt(n, bigQ());
+        c = randomPolynomial();
+        a = randomPolynomial(Polynomial.Domain.NTT);
+        b = randomPolynomial(Polynomial.Domain.NTT);
+        dst = randomPolynomial(Polynomial.Domain.NTT);
+        transformed = randomPolynomial();
+    }
+
+    @Benchmark
+    public int[] convertToNtt() {
+        return ntt.convertToNtt(c).getCoeffs();
+    }
+
+    @Benchmark
+    public int[] convertFromNtt() {
+        return ntt.convertFromNtt(a).getCoeffs();
+    }
+
+    @Benchmark
+    public int[] multiplyNttPolys() {
+        return ntt.multiplyNttPolys(a, b).getCoeffs();
+    }
+
+    /**
+     * Transforms back and forth, so values and domain stay the same across invocations.
+     */
+    @Benchmark
+    public int[] nttForwardInverseInPlace() {
+        ntt.nttForward(transformed);
+        ntt.nttInverse(transformed);
+        return transformed.getCoeffs();
+    }
+
+    @Benchmark
+    public int[] multiplyNttPolysInPlace() {
+        ntt.multiplyNttPolys(dst, a, b);
+        return dst.getCoeffs();
+    }
+
+    @Benchmark
+    public int[] multiplyAddScaled() {
+        ntt.multiplyAddScaled(dst, a, b, 2, a);
+        return dst.getCoeffs();
+    }
+}
@@ -0,0 +1,53 @@
+package protocol;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Represents parameter set (n, q, eta) shared by all benchmarks, each benchmark runs for every combination.
+ * <p>
+ * q - 1 must be divisible by 2 * n and q must be smaller than 2^30 (see class Montgomery).
+ * For q = 1073479681, q - 1 = 2^18 * 3^2 * 5 * 7 * 13, so any power of two n up to 2^17 works.
+ * Inputs are generated from a fixed seed, so all runs measure the same data.
+ * </p>
+ */
+@State(Scope.Thread)
+public abstract class ParameterSetState {
+
+    @Param({"512", "1024", "2048"})
+    public int n;
+
+    @Param({"1073479681"})
+    public long q;
+
+    @Param({"2", "3"})
+    public int eta;
+
+    final Random random = new Random(42);
+
+    BigInteger bigQ() {
+        return BigInteger.valueOf(q);
+    }
+
+    /**
+     * Polynomial in coefficient domain with uniformly random coefficients in [0, q).
+     */
+    Polynomial randomPolynomial() {
+        return randomPolynomial(Polynomial.Domain.COEFFICIENT);
+    }
+
+    /**
+     * Polynomial in given domain with uniformly random coefficients in [0, q).
+     */
+    Polynomial randomPolynomial(Polynomial.Domain domain) {
+        int[] coefficients = new int[n];
+        for (int i = 0; i < n; i++) {
+            coefficients[i] = random.nextInt((int) q);
+        }
+        return new Polynomial(coefficients, bigQ(), domain);
+    }
+}
@@ -0,0 +1,53 @@
+package protocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bit-packed wire format of class Polynomial, into a fresh array and into a reused direct buffer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PolynomialBenchmark extends ParameterSetState {
+
+    private Polynomial polynomial;
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setUp() {
+        polynomial = randomPolynomial();
+        buffer = ByteBuffer.allocateDirect(polynomial.packedByteSize());
+        polynomial.toBytes(buffer);
+    }
+
+    @Benchmark
+    public byte[] toBytes() {
+        return polynomial.toBytes();
+    }
+
+    @Benchmark
+    public ByteBuffer toBytesIntoBuffer() {
+        buffer.clear();
+        polynomial.toBytes(buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public int[] fromBytes() {
+        buffer.clear();
+        polynomial.fromBytes(buffer);
+        return polynomial.getCoeffs();
+    }
+}
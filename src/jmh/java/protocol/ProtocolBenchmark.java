@@ -0,0 +1,98 @@
+package protocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole phase1 of one session in process: sampling, NTT math, encoding of pi and its write into a real
+ * Unix domain socket, whose other end is drained by a background thread.
+ * <p>
+ * cached = false measures the cold path (a is generated every time), cached = true the repeated login.
+ * Ephemeral secrets are always generated inline (no background producers), so the time is the full cost.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolBenchmark extends ParameterSetState {
+
+    private static final long CACHE_BYTES = 64L << 20;
+
+    @Param({"false", "true"})
+    public boolean cached;
+
+    private Path directory;
+    private VerifierStore verifiers;
+    private ServerSocketChannel serverChannel;
+    private SocketChannel clientChannel;
+    private FramedChannel framed;
+    private Protocol protocol;
+    private byte[] publicSeed;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("protocol-benchmark");
+        verifiers = VerifierStore.open(directory.resolve("verifiers"), n, bigQ(), 1);
+        protocol = new Protocol(n, bigQ(), eta, verifiers, cached ? CACHE_BYTES : 0);
+        publicSeed = new byte[Protocol.PUBLICSEEDBYTESIZE];
+        random.nextBytes(publicSeed);
+
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(directory.resolve("socket"));
+        serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        serverChannel.bind(address);
+        clientChannel = SocketChannel.open(address);
+        framed = new FramedChannel(serverChannel.accept(), new BufferPool(16));
+        SocketChannel drained = clientChannel;
+        Thread.ofPlatform().daemon().start(() -> {
+            ByteBuffer sink = ByteBuffer.allocateDirect(1 << 16);
+            try {
+                while (drained.read(sink.clear()) >= 0) {
+                    // throw away everything the server sends
+                }
+            } catch (IOException ignored) {
+                // closed by tearDown
+            }
+        });
+    }
+
+    @Benchmark
+    public void phase1() throws IOException {
+        protocol.phase1(publicSeed, framed);
+        framed.flushBlocking();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        framed.close();
+        clientChannel.close();
+        serverChannel.close();
+        protocol.close();
+        verifiers.close();
+        try (var files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+}
@@ -0,0 +1,84 @@
+package protocol;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ * Implements the wire format of polynomials, for every storage of their coefficients (Polynomial, OffHeapPolynomial).
+ * <p>
+ * Coefficients are tightly bit-packed: each takes exactly bitLength(q - 1) bits, from the constant coefficient
+ * to X^(n-1) one, most significant bit first. Last byte is padded by zero bits.
+ * Coefficients are read and written only through interface Coefficients, so there is just one encoder and decoder.
+ * Neither of them allocates anything.
+ * </p>
+ */
+final class BitPacking {
+
+    /**
+     * Int accessor of the coefficients being packed or unpacked.
+     */
+    interface Coefficients {
+
+        int getCoeffIndex(int i);
+
+        void setCoeffIndex(int i, int val);
+    }
+
+    private BitPacking() {
+    }
+
+    /**
+     * Number of bits of each packed coefficient modulo q.
+     */
+    static int coeffBits(BigInteger q) {
+        return q.subtract(BigInteger.ONE).bitLength();
+    }
+
+    /**
+     * Number of bytes of n packed coefficients, coeffBits bits each.
+     */
+    static int packedByteSize(int n, int coeffBits) {
+        return (int) (((long) n * coeffBits + 7) / 8);  // ceiling
+    }
+
+    /**
+     * Writes packedByteSize(n, coeffBits) bytes of n coefficients into out (from its current position).
+     */
+    static void pack(Coefficients coefficients, int n, int coeffBits, ByteBuffer out) {
+        long acc = 0;  // only the lowest accBits bits are valid, higher ones are already written
+        int accBits = 0;
+        for (int i = 0; i < n; i++) {
+            acc = (acc << coeffBits) | coefficients.getCoeffIndex(i);
+            accBits += coeffBits;
+            while (accBits >= 8) {
+                accBits -= 8;
+                out.put((byte) (acc >>> accBits));
+            }
+        }
+        if (accBits > 0) {
+            out.put((byte) (acc << (8 - accBits)));
+        }
+    }
+
+    /**
+     * Overwrites n coefficients by packedByteSize(n, coeffBits) bytes read from in (from its current position).
+     * @throws IllegalArgumentException if some decoded coefficient is not smaller than q
+     */
+    static void unpack(ByteBuffer in, int n, int coeffBits, int q, Coefficients coefficients) {
+        long mask = (1L << coeffBits) - 1;
+        long acc = 0;
+        int accBits = 0;
+        for (int i = 0; i < n; i++) {
+            while (accBits < coeffBits) {
+                acc = (acc << 8) | (in.get() & 0xFF);
+                accBits += 8;
+            }
+            accBits -= coeffBits;
+            int coeff = (int) ((acc >>> accBits) & mask);
+            if (coeff >= q) {
+                throw new IllegalArgumentException("Coefficient " + i + " is not reduced modulo q: " + coeff);
+            }
+            coefficients.setCoeffIndex(i, coeff);
+        }
+    }
+}
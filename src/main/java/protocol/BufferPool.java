@@ -0,0 +1,76 @@
+package protocol;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Represents a thread-safe pool of direct ByteBuffers shared by all connections.
+ * <p>
+ * Buffers are grouped into size classes (powers of two from MIN_CAPACITY to MAX_CAPACITY), each class keeps
+ * at most maxPerClass free buffers. Bigger requests are served by a fresh heap buffer, which is never pooled.
+ * Direct buffers are used, so the kernel reads and writes them without an extra copy.
+ * </p>
+ */
+class BufferPool {
+
+    static final int MIN_CAPACITY = 64;
+    static final int MAX_CAPACITY = 1 << 16;
+
+    private final int maxPerClass;
+    private final Queue<ByteBuffer>[] freeBuffers;
+    private final AtomicInteger[] freeCounts;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})  // generic array creation
+    BufferPool(int maxPerClass) {
+        this.maxPerClass = maxPerClass;
+        int classes = sizeClass(MAX_CAPACITY) + 1;
+        this.freeBuffers = new Queue[classes];
+        this.freeCounts = new AtomicInteger[classes];
+        for (int i = 0; i < classes; i++) {
+            freeBuffers[i] = new ConcurrentLinkedQueue<>();
+            freeCounts[i] = new AtomicInteger();
+        }
+    }
+
+    private static int sizeClass(int size) {
+        int capacity = Math.max(size, MIN_CAPACITY);
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1) - Integer.numberOfTrailingZeros(MIN_CAPACITY);
+    }
+
+    /**
+     * Returns cleared buffer with position 0 and limit size.
+     */
+    ByteBuffer acquire(int size) {
+        if (size > MAX_CAPACITY) {
+            return ByteBuffer.allocate(size);
+        }
+        int sizeClass = sizeClass(size);
+        ByteBuffer buffer = freeBuffers[sizeClass].poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(MIN_CAPACITY << sizeClass);
+        } else {
+            freeCounts[sizeClass].decrementAndGet();
+        }
+        buffer.clear().limit(size);
+        return buffer;
+    }
+
+    /**
+     * Gives buffer back to the pool. Buffers which were not acquired from a pool are silently ignored.
+     * Buffer must not be used after it was released.
+     */
+    void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (!buffer.isDirect() || capacity < MIN_CAPACITY || capacity > MAX_CAPACITY || Integer.bitCount(capacity) != 1) {
+            return;
+        }
+        int sizeClass = sizeClass(capacity);
+        if (freeCounts[sizeClass].incrementAndGet() > maxPerClass) {
+            freeCounts[sizeClass].decrementAndGet();
+            return;  // enough free buffers of this size, let GC take this one
+        }
+        freeBuffers[sizeClass].offer(buffer);
+    }
+}
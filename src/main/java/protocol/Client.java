@@ -0,0 +1,129 @@
+package protocol;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * Represents the client side of the protocol, the counterpart of one server Protocol.
+ * <p>
+ * Registration (phase0): client chooses random publicSeed and salt, derives secret sv and error ev from
+ * SHA3-256(salt || identity || password) and sends id of its parameter set, publicSeed, identity, salt
+ * and v = a * sv + 2 * ev in NTT form.
+ * Then it exchanges messages with the server exactly as class Server expects: it waits for hello,
+ * sends MESSAGE and waits for goodbye. Later phases are not served yet, so they are not implemented here either.
+ * All polynomials and buffers are allocated once, so one client can run many handshakes one after another.
+ * Not thread-safe.
+ * </p>
+ */
+class Client {
+
+    static final String MESSAGE = "Hello, I am the client!";
+    private static final int PASSWORDHASHBYTESIZE = 32;
+
+    private final ParameterSet set;
+    private final Engine engine;
+    private final Ntt ntt;
+    private final Mlkem mlkem;
+
+    private final byte[] publicSeed = new byte[Protocol.PUBLICSEEDBYTESIZE];
+    private final byte[] identity = new byte[Protocol.IDENTITYBYTESIZE];
+    private final byte[] salt = new byte[Protocol.SALTBYTESIZE];
+    private final Polynomial aNtt;
+    private final EphemeralPool.Ephemeral verifierSecrets;
+    private final Polynomial vNtt;
+    private final byte[] xofBuffer;
+    private final byte[][] noiseBuffers;
+    private final byte[][] noiseSeeds;
+    /**
+     * Of the current handshake, fed by FramedChannel.
+     */
+    private final Transcript transcript = new Transcript();
+
+    /**
+     * Ntt and Mlkem (of the same parameter set) are thread-safe, so they can be shared by all clients.
+     */
+    Client(ParameterSet set, Ntt ntt, Mlkem mlkem) {
+        int n = set.n();
+        BigInteger q = set.q();
+        this.set = set;
+        this.engine = new Engine();
+        this.ntt = ntt;
+        this.mlkem = mlkem;
+        this.aNtt = new Polynomial(new int[n], q, Polynomial.Domain.NTT);
+        this.verifierSecrets = new EphemeralPool.Ephemeral(n, q);
+        this.vNtt = new Polynomial(new int[n], q, Polynomial.Domain.NTT);
+        this.xofBuffer = new byte[mlkem.uniformBufferSize(engine)];
+        this.noiseBuffers = new byte[2][n * set.eta() / 4];
+        this.noiseSeeds = new byte[2][Workspace.NOISESEEDBYTESIZE];
+    }
+
+    /**
+     * Prepares registration of identity (exactly Protocol.IDENTITYBYTESIZE bytes) with given password,
+     * its message is then sent by phase0Blocking. Does all the math of phase0, so it can be timed separately.
+     */
+    void register(byte[] identity, byte[] password) {
+        if (identity.length != Protocol.IDENTITYBYTESIZE) {
+            throw new IllegalArgumentException("Identity must have " + Protocol.IDENTITYBYTESIZE + " bytes, got " + identity.length);
+        }
+        System.arraycopy(identity, 0, this.identity, 0, identity.length);
+        engine.getRandomBytes(publicSeed);
+        engine.getRandomBytes(salt);
+        mlkem.generateUniformPolynomialNtt(engine, aNtt, publicSeed, xofBuffer);
+        // sv and ev are derived from the password, both seeds share the hash and differ in the last byte
+        byte[] passwordInput = new byte[Protocol.SALTBYTESIZE + Protocol.IDENTITYBYTESIZE + password.length];
+        System.arraycopy(salt, 0, passwordInput, 0, Protocol.SALTBYTESIZE);
+        System.arraycopy(identity, 0, passwordInput, Protocol.SALTBYTESIZE, Protocol.IDENTITYBYTESIZE);
+        System.arraycopy(password, 0, passwordInput, Protocol.SALTBYTESIZE + Protocol.IDENTITYBYTESIZE, password.length);
+        engine.hash(noiseSeeds[0], passwordInput);
+        System.arraycopy(noiseSeeds[0], 0, noiseSeeds[1], 0, PASSWORDHASHBYTESIZE);
+        noiseSeeds[1][Workspace.NOISESEEDBYTESIZE - 1] = 1;
+        engine.prf(noiseBuffers, noiseSeeds, 2);
+        Polynomial svNtt = verifierSecrets.s1Ntt();
+        Polynomial evNtt = verifierSecrets.e1Ntt();
+        mlkem.generateCbdPolynomial(svNtt, noiseBuffers[0], set.eta());
+        ntt.nttForward(svNtt);
+        mlkem.generateCbdPolynomial(evNtt, noiseBuffers[1], set.eta());
+        ntt.nttForward(evNtt);
+        // v = a * sv + 2 * ev
+        ntt.multiplyAddScaled(vNtt, aNtt, svNtt, 2, evNtt);
+    }
+
+    int phase0MessageSize() {
+        return ParameterSet.IDBYTESIZE + Protocol.PUBLICSEEDBYTESIZE + Protocol.IDENTITYBYTESIZE + Protocol.SALTBYTESIZE + vNtt.packedByteSize();
+    }
+
+    /**
+     * Sends the registration prepared by register (id of the set for Server.newProtocol, then in the order
+     * Protocol.phase0 parses it) and waits for hello.
+     * @throws ProtocolException if the server answers anything else
+     */
+    void phase0Blocking(FramedChannel framed) throws IOException {
+        transcript.reset();
+        framed.setTranscript(transcript);
+        ByteBuffer payload = framed.allocatePayload(phase0MessageSize());
+        payload.put(set.id()).put(publicSeed).put(identity).put(salt);
+        vNtt.toBytes(payload);
+        framed.queueFrame(payload.flip());
+        framed.flushBlocking();
+        expectString(framed, Server.HELLO);
+    }
+
+    /**
+     * Sends MESSAGE and waits for goodbye, after which the server closes the connection.
+     * @throws ProtocolException if the server answers anything else
+     */
+    void finishBlocking(FramedChannel framed) throws IOException {
+        Server.queueString(framed, MESSAGE);
+        framed.flushBlocking();
+        expectString(framed, Server.GOODBYE);
+    }
+
+    private static void expectString(FramedChannel framed, String expected) throws IOException {
+        String received = Server.readString(framed);
+        if (!expected.equals(received)) {
+            throw new ProtocolException("Expected \"" + expected + "\", got \"" + received + "\"");
+        }
+    }
+}
@@ -2,12 +2,12 @@ package protocol;
 
 import org.bouncycastle.crypto.digests.SHA3Digest;
 import org.bouncycastle.crypto.digests.SHAKEDigest;
-import java.security.SecureRandom;
 
 /**
  * Represents engine of the protocol, so all functions that must have some internal state during the run of the protocol.
  * <p>
- * Represents XOF function - SHAKE128, hash function - SHA3-256, and random function - SecureRandom().
+ * Represents XOF function - SHAKE128, hash function - SHA3-256, and random function - shared RandomSource.
+ * PRF - SHAKE256 - can also be computed for several seeds at once by class ParallelShake.
  * Heavily inspired by
  * https://github.com/bcgit/bc-java/blob/main/core/src/main/java/org/bouncycastle/pqc/crypto/mlkem/Symmetric.java
  * and
@@ -19,14 +19,16 @@ class Engine {
     private final SHAKEDigest xof;
     private final SHA3Digest sha3Digest256;
     private final SHAKEDigest shakeDigest;
-    private final SecureRandom random;
+    private final RandomSource random;
+    private final ParallelShake prfLanes;
 
     Engine() {
         this.xofBlockBytes = 168;
         this.xof = new SHAKEDigest(128);
         this.sha3Digest256 = new SHA3Digest(256);
         this.shakeDigest = new SHAKEDigest(256);
-        this.random = new SecureRandom();
+        this.random = RandomSource.shared();
+        this.prfLanes = ParallelShake.shake256(ParallelShake.DEFAULTLANES);
     }
 
     void xofAbsorb(byte[] seed) {
@@ -48,11 +50,28 @@ class Engine {
         shakeDigest.doFinal(out, 0, out.length);
     }
 
+    /**
+     * outs[i] = prf(seeds[i]) for i < count, computed in batches of ParallelShake.DEFAULTLANES.
+     * All seeds must have the same length and so must all outs.
+     */
+    void prf(byte[][] outs, byte[][] seeds, int count) {
+        for (int i = 0; i < count; i += prfLanes.lanes()) {
+            prfLanes.digest(seeds, seeds[0].length, outs, outs[0].length, i, Math.min(prfLanes.lanes(), count - i));
+        }
+    }
+
     public void getRandomBytes(byte[] buf) {
         this.random.nextBytes(buf);
     }
 
     public int getRandomBit() {
-        return this.random.nextInt(2);
+        return this.random.nextBit();
+    }
+
+    /**
+     * Fills out by random bits taken from one buffer of the RandomSource (instead of one draw per bit).
+     */
+    void getRandomLongs(long[] out) {
+        random.nextLongs(out);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,226 @@
+package protocol;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Represents a pool of ephemeral secrets (s1, e1) of phase1 prepared in the background for one parameter set.
+ * <p>
+ * They do not depend on the client, so low-priority producer threads sample them (two pairs per batched PRF call,
+ * see Engine.prf) and transform them ahead of time. A handshake then only takes a ready pair from a lock-free queue.
+ * Producers are started by the first poll, so a server which never runs phase1 spends no CPU on them and keeps
+ * no secrets in the pool. They fill the queue up to highWatermark and sleep; they are woken up when it drops below
+ * lowWatermark. When the queue is empty, the handshake generates its pair inline (counted as a miss), exactly as
+ * producers do. Each pair is handed out once and never reused, its user zeroes it by clear after use; close zeroes
+ * the pairs which were never handed out. All methods are thread-safe.
+ * </p>
+ */
+final class EphemeralPool implements AutoCloseable {
+
+    /**
+     * Ephemeral secrets of phase1, owned by one session after it takes them.
+     */
+    record Ephemeral(Polynomial s1Ntt, Polynomial e1Ntt) {
+
+        /**
+         * Both are sampled in coefficient domain and transformed by generate.
+         */
+        Ephemeral(int n, BigInteger q) {
+            this(new Polynomial(new int[n], q, Polynomial.Domain.COEFFICIENT),
+                    new Polynomial(new int[n], q, Polynomial.Domain.COEFFICIENT));
+        }
+
+        /**
+         * Zeroes both secrets.
+         */
+        void clear() {
+            Arrays.fill(s1Ntt.getCoeffs(), 0);
+            Arrays.fill(e1Ntt.getCoeffs(), 0);
+        }
+    }
+
+    private final int n;
+    private final BigInteger q;
+    private final int eta;
+    private final Ntt ntt;
+    private final Mlkem mlkem;
+    private final int lowWatermark;
+    private final int highWatermark;
+    private final int producerCount;
+
+    private final Queue<Ephemeral> ready = new ConcurrentLinkedQueue<>();
+    /**
+     * Size of ready, ConcurrentLinkedQueue.size() is not constant-time.
+     */
+    private final AtomicInteger depth = new AtomicInteger();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder produced = new LongAdder();
+    private final Metrics metrics = Metrics.shared();
+
+    /**
+     * Empty until the first poll starts them. Both are written under the lock of this, together with closed.
+     */
+    private volatile Thread[] producers = new Thread[0];
+    private volatile boolean started;
+    private volatile boolean closed;
+
+    /**
+     * @param producerCount number of background threads (started by the first poll), 0 means that every pair
+     *                      is generated inline
+     */
+    EphemeralPool(int n, BigInteger q, int eta, int producerCount, int lowWatermark, int highWatermark) {
+        this.n = n;
+        this.q = q;
+        this.eta = eta;
+        this.ntt = new Ntt(n, q);
+        this.mlkem = new Mlkem(n, q);
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+        this.producerCount = producerCount;
+    }
+
+    private synchronized void startProducers() {
+        if (started || closed) {
+            return;
+        }
+        started = true;
+        Thread[] threads = new Thread[producerCount];
+        for (int i = 0; i < producerCount; i++) {
+            threads[i] = Thread.ofPlatform().daemon().priority(Thread.MIN_PRIORITY)
+                    .name("ephemeral-producer-" + i).start(this::produce);
+        }
+        producers = threads;
+    }
+
+    /**
+     * Returns a ready pair or null if the pool is empty. Then the caller generates the pair itself by generate.
+     */
+    Ephemeral poll() {
+        if (!started) {
+            startProducers();
+        }
+        Ephemeral ephemeral = ready.poll();
+        if (ephemeral == null) {
+            misses.increment();
+            wakeUpProducers();
+            return null;
+        }
+        hits.increment();
+        if (depth.decrementAndGet() < lowWatermark) {
+            wakeUpProducers();
+        }
+        return ephemeral;
+    }
+
+    /**
+     * Samples fresh first (and second, if it is not null) by one batched PRF call of the engine. Uses first 2
+     * (or 4) seeds and noise buffers (see class Workspace) as scratch memory, so it does not allocate anything.
+     */
+    void generate(Engine engine, byte[][] seeds, byte[][] noise, Ephemeral first, Ephemeral second) {
+        long begin = metrics.begin();
+        int count = second == null ? 2 : 4;
+        for (int i = 0; i < count; i++) {
+            engine.getRandomBytes(seeds[i]);
+        }
+        engine.prf(noise, seeds, count);
+        sample(first, noise[0], noise[1]);
+        if (second != null) {
+            sample(second, noise[2], noise[3]);
+        }
+        metrics.end(Metrics.Stage.NOISE, begin);
+        transform(first);
+        if (second != null) {
+            transform(second);
+        }
+    }
+
+    private void sample(Ephemeral ephemeral, byte[] s1Noise, byte[] e1Noise) {
+        mlkem.generateCbdPolynomial(ephemeral.s1Ntt(), s1Noise, eta);
+        mlkem.generateCbdPolynomial(ephemeral.e1Ntt(), e1Noise, eta);
+    }
+
+    private void transform(Ephemeral ephemeral) {
+        ntt.nttForward(ephemeral.s1Ntt());
+        ntt.nttForward(ephemeral.e1Ntt());
+    }
+
+    private void produce() {
+        Engine engine = new Engine();
+        byte[][] seeds = new byte[Workspace.NOISEPOLYNOMIALS][Workspace.NOISESEEDBYTESIZE];
+        byte[][] noise = new byte[Workspace.NOISEPOLYNOMIALS][n * eta / 4];
+        while (!closed) {
+            if (depth.get() >= highWatermark) {
+                LockSupport.park(this);  // until poll drops below lowWatermark (or spuriously, then just check again)
+                continue;
+            }
+            Ephemeral first = new Ephemeral(n, q);
+            Ephemeral second = new Ephemeral(n, q);
+            generate(engine, seeds, noise, first, second);
+            ready.offer(first);
+            ready.offer(second);
+            depth.addAndGet(2);
+            produced.add(2);
+        }
+    }
+
+    /**
+     * Zeroes and drops all ready pairs.
+     */
+    private void drain() {
+        Ephemeral ephemeral;
+        while ((ephemeral = ready.poll()) != null) {
+            depth.decrementAndGet();
+            ephemeral.clear();
+        }
+    }
+
+    private void wakeUpProducers() {
+        for (Thread producer : producers) {
+            LockSupport.unpark(producer);
+        }
+    }
+
+    int depth() {
+        return depth.get();
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    long getProduced() {
+        return produced.sum();
+    }
+
+    /**
+     * Stops producers, waits until they finish the pairs they are generating, and zeroes all pairs which were not taken.
+     */
+    @Override
+    public void close() {
+        Thread[] stopped;
+        synchronized (this) {
+            closed = true;
+            stopped = producers;
+        }
+        wakeUpProducers();
+        for (Thread producer : stopped) {
+            try {
+                producer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        drain();
+    }
+}
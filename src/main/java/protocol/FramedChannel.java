@@ -0,0 +1,220 @@
+package protocol;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+/**
+ * Represents framed message I/O of one connection. Every message on the wire is a frame:
+ * 4 bytes big-endian length of the payload followed by the payload.
+ * <p>
+ * Works with both blocking and non-blocking channels. readFrame and flush never wait; they accumulate partial reads
+ * and partial writes across calls, so they can be called from a Selector loop whenever the channel is ready.
+ * Blocking variants simply repeat them. Queued frames are sent by gathering writes, so headers and payloads
+ * (e.g. several encoded polynomials) of all queued frames go out in one syscall.
+ * Payload buffers come from the shared BufferPool and go back to it: received frames by release,
+ * queued frames automatically once they are written. Not thread-safe, but reading (readFrame)
+ * and writing (queueFrame, flush) touch separate state, so one reading and one writing thread may share it.
+ * When a Transcript is set, every completed received frame and every queued frame is fed into it.
+ * </p>
+ */
+class FramedChannel {
+
+    static final int HEADERBYTESIZE = 4;
+    static final int MAXFRAMEBYTESIZE = 1 << 20;
+
+    private final SocketChannel channel;
+    private final BufferPool pool;
+    private final Metrics metrics;
+
+    private final ByteBuffer readHeader;
+    /**
+     * Payload of the frame being read, null while its header is being read.
+     */
+    private ByteBuffer readPayload;
+
+    /**
+     * Headers and payloads of all queued frames, from writeOffset to writeCount not yet fully written.
+     */
+    private ByteBuffer[] writeQueue = new ByteBuffer[8];
+    private int writeOffset;
+    private int writeCount;
+
+    /**
+     * Null if the frames are not hashed (e.g. a multiplexed connection, whose streams have their own transcripts).
+     */
+    private Transcript transcript;
+
+    FramedChannel(SocketChannel channel, BufferPool pool) {
+        this.channel = channel;
+        this.pool = pool;
+        this.readHeader = ByteBuffer.allocateDirect(HEADERBYTESIZE);
+        this.metrics = Metrics.shared();
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    BufferPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Frames read or queued from now on are fed into transcript, null stops it.
+     */
+    void setTranscript(Transcript transcript) {
+        this.transcript = transcript;
+    }
+
+    /**
+     * Reads as much of the current frame as is available.
+     * @return flipped payload of the completed frame (caller must release it) or null if the frame is not complete yet
+     * @throws EOFException if the peer closed the connection
+     * @throws ProtocolException if the frame is bigger than MAXFRAMEBYTESIZE
+     */
+    ByteBuffer readFrame() throws IOException {
+        if (readPayload == null) {
+            readSome(readHeader);
+            if (readHeader.hasRemaining()) {
+                return null;
+            }
+            readHeader.flip();
+            int length = readHeader.getInt();
+            readHeader.clear();
+            if (length < 0 || length > MAXFRAMEBYTESIZE) {
+                throw new ProtocolException("Invalid frame length " + length);
+            }
+            readPayload = pool.acquire(length);
+        }
+        if (readPayload.hasRemaining()) {
+            readSome(readPayload);
+            if (readPayload.hasRemaining()) {
+                return null;
+            }
+        }
+        ByteBuffer frame = readPayload;
+        readPayload = null;
+        frame.flip();
+        if (transcript != null) {
+            transcript.updateFrame(frame);
+        }
+        return frame;
+    }
+
+    ByteBuffer readFrameBlocking() throws IOException {
+        ByteBuffer frame;
+        while ((frame = readFrame()) == null) {
+            Thread.onSpinWait();  // only for non-blocking channels, blocking ones wait in read
+        }
+        return frame;
+    }
+
+    private void readSome(ByteBuffer buffer) throws IOException {
+        long begin = metrics.begin();
+        int read = channel.read(buffer);
+        if (read < 0) {
+            throw new EOFException("Connection closed by peer");
+        }
+        metrics.end(Metrics.Stage.SOCKET_READ, begin, read);
+        metrics.bytesRead(read);
+    }
+
+    void release(ByteBuffer frame) {
+        pool.release(frame);
+    }
+
+    /**
+     * Returns buffer for a payload of given size, which can be passed to queueFrame after it is filled.
+     */
+    ByteBuffer allocatePayload(int size) {
+        return pool.acquire(size);
+    }
+
+    /**
+     * Queues one frame made of given payload parts (each from its position to its limit). Nothing is written yet.
+     * Ownership of the parts passes to this object, pooled ones are released after they are written.
+     */
+    void queueFrame(ByteBuffer... payloadParts) {
+        int length = 0;
+        for (ByteBuffer part : payloadParts) {
+            length += part.remaining();
+        }
+        if (transcript != null) {
+            transcript.updateFrame(payloadParts);
+        }
+        ByteBuffer header = pool.acquire(HEADERBYTESIZE);
+        header.putInt(length).flip();
+        ensureWriteCapacity(1 + payloadParts.length);
+        writeQueue[writeCount++] = header;
+        for (ByteBuffer part : payloadParts) {
+            writeQueue[writeCount++] = part;
+        }
+    }
+
+    private void ensureWriteCapacity(int extra) {
+        if (writeCount + extra <= writeQueue.length) {
+            return;
+        }
+        int pending = writeCount - writeOffset;
+        ByteBuffer[] target = pending + extra <= writeQueue.length ? writeQueue : new ByteBuffer[Math.max(2 * writeQueue.length, pending + extra)];
+        System.arraycopy(writeQueue, writeOffset, target, 0, pending);
+        if (target == writeQueue) {
+            Arrays.fill(writeQueue, pending, writeCount, null);
+        }
+        writeQueue = target;
+        writeOffset = 0;
+        writeCount = pending;
+    }
+
+    /**
+     * Writes as much of the queued frames as the channel accepts, with one gathering write.
+     * @return true if everything queued was written
+     */
+    boolean flush() throws IOException {
+        if (writeOffset < writeCount) {
+            long begin = metrics.begin();
+            long written = channel.write(writeQueue, writeOffset, writeCount - writeOffset);
+            metrics.end(Metrics.Stage.SOCKET_WRITE, begin, written);
+            metrics.bytesWritten(written);
+        }
+        while (writeOffset < writeCount && !writeQueue[writeOffset].hasRemaining()) {
+            pool.release(writeQueue[writeOffset]);
+            writeQueue[writeOffset++] = null;
+        }
+        if (writeOffset == writeCount) {
+            writeOffset = writeCount = 0;
+            return true;
+        }
+        return false;
+    }
+
+    void flushBlocking() throws IOException {
+        while (!flush()) {
+            Thread.onSpinWait();  // only for non-blocking channels, blocking ones wait in write
+        }
+    }
+
+    /**
+     * Gives all buffers still held by this connection back to the pool and closes the channel.
+     */
+    void close() {
+        if (readPayload != null) {
+            pool.release(readPayload);
+            readPayload = null;
+        }
+        for (int i = writeOffset; i < writeCount; i++) {
+            pool.release(writeQueue[i]);
+            writeQueue[i] = null;
+        }
+        writeOffset = writeCount = 0;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // nothing more to do with a broken connection
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package protocol;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Represents histogram of latencies in nanoseconds with fixed relative precision, in the style of HdrHistogram.
+ * <p>
+ * Values below SUBBUCKETS are counted exactly. Above that, every power of two is split into SUBBUCKETS / 2 equal
+ * buckets, so a value is stored with relative error below 2 / SUBBUCKETS (1.6 %) whatever its magnitude.
+ * Memory is fixed (BUCKETS counters), recording is one array increment without any lock or allocation,
+ * so it can be called on the hot path by many threads at once. Percentiles are reported as the highest value
+ * of their bucket, so they are never lower than the real ones.
+ * SOURCE: https://github.com/HdrHistogram/HdrHistogram
+ * </p>
+ */
+final class LatencyHistogram {
+
+    private static final int SUBBUCKETBITS = 7;
+    private static final int SUBBUCKETS = 1 << SUBBUCKETBITS;
+    private static final int HALFSUBBUCKETS = SUBBUCKETS / 2;
+    /**
+     * Index of Long.MAX_VALUE is (63 - SUBBUCKETBITS) * HALFSUBBUCKETS + SUBBUCKETS - 1.
+     */
+    private static final int BUCKETS = (63 - SUBBUCKETBITS) * HALFSUBBUCKETS + SUBBUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    private static int index(long value) {
+        if (value < SUBBUCKETS) {
+            return (int) value;
+        }
+        // shift >= 1 keeps the SUBBUCKETBITS - 1 bits below the highest one bit
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUBBUCKETBITS;
+        return shift * HALFSUBBUCKETS + (int) (value >>> shift);
+    }
+
+    private static long highestValue(int index) {
+        if (index < SUBBUCKETS) {
+            return index;
+        }
+        int shift = index / HALFSUBBUCKETS - 1;
+        long subBucket = index - (long) shift * HALFSUBBUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Records one latency, negative values (clock went backwards) are recorded as 0.
+     */
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    long getCount() {
+        return count.sum();
+    }
+
+    long getMax() {
+        return max.get();
+    }
+
+    double getMean() {
+        long total = count.sum();
+        return total == 0 ? 0 : (double) sum.sum() / total;
+    }
+
+    /**
+     * Smallest recorded value (up to the bucket precision) such that given percentage of recorded values
+     * is not higher, 0 if nothing was recorded. Concurrent recording may be partially included.
+     */
+    long valueAtPercentile(double percentile) {
+        long total = count.sum();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Adds all values recorded by other into this histogram.
+     */
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+        count.add(other.count.sum());
+        sum.add(other.sum.sum());
+        max.accumulateAndGet(other.max.get(), Math::max);
+    }
+
+    /**
+     * One-line summary in microseconds: count, mean, p50, p99, p99.9 and max.
+     */
+    String summary() {
+        return String.format(Locale.ROOT, "count=%d mean=%.1f p50=%.1f p99=%.1f p999=%.1f max=%.1f us",
+                getCount(), getMean() / 1e3, valueAtPercentile(50) / 1e3, valueAtPercentile(99) / 1e3,
+                valueAtPercentile(99.9) / 1e3, getMax() / 1e3);
+    }
+}
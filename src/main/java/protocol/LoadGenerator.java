@@ -0,0 +1,173 @@
+package protocol;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load driver: runs many clients (see class Client) against a running server and reports throughput and latencies.
+ * <p>
+ * CONNECTIONS virtual threads keep one connection each open at any time: every one of them repeatedly connects,
+ * registers and finishes the handshake (the server closes the connection after goodbye). With RATE > 0 handshakes
+ * are started on a fixed schedule of RATE per second shared by all threads, otherwise as fast as possible.
+ * Latency of every phase is recorded into a LatencyHistogram: client math of phase0, connect, phase0 round-trip
+ * (registration until hello), finish round-trip (message until goodbye) and the whole handshake.
+ * Scheduled latency is measured from the time the handshake should have started, so it also includes the time
+ * it waited for a free connection (coordinated omission). Identities are reused cyclically, but every registration
+ * is still appended to the verifier store of the server.
+ * Parameters are system properties (with defaults):
+ * protocol.load.socket (~/socket), protocol.load.connections (64), protocol.load.rate (0 = unlimited),
+ * protocol.load.duration (30 seconds), protocol.load.identities (10000),
+ * protocol.load.set (parameter set of all handshakes, see class ParameterSet, n1024).
+ * </p>
+ */
+public class LoadGenerator {
+
+    private static final String SOCKET_PROPERTY = "protocol.load.socket";
+    private static final String CONNECTIONS_PROPERTY = "protocol.load.connections";
+    private static final String RATE_PROPERTY = "protocol.load.rate";
+    private static final String DURATION_PROPERTY = "protocol.load.duration";
+    private static final String IDENTITIES_PROPERTY = "protocol.load.identities";
+    private static final String SET_PROPERTY = "protocol.load.set";
+    private static final int POOLED_BUFFERS_PER_SIZE = 64;
+    private static final byte[] PASSWORD = "load-generator".getBytes(StandardCharsets.US_ASCII);
+
+    private final UnixDomainSocketAddress address;
+    private final int connections;
+    private final long periodNanos;
+    private final long durationNanos;
+    private final int identities;
+    private final ParameterSet set;
+    private final Ntt ntt;
+    private final Mlkem mlkem;
+    private final BufferPool bufferPool = new BufferPool(POOLED_BUFFERS_PER_SIZE);
+
+    /**
+     * Index of the next handshake, also defines its scheduled start.
+     */
+    private final AtomicLong nextHandshake = new AtomicLong();
+    private final LongAdder failures = new LongAdder();
+    private final LatencyHistogram clientMath = new LatencyHistogram();
+    private final LatencyHistogram connect = new LatencyHistogram();
+    private final LatencyHistogram phase0 = new LatencyHistogram();
+    private final LatencyHistogram finish = new LatencyHistogram();
+    private final LatencyHistogram handshake = new LatencyHistogram();
+    private final LatencyHistogram scheduled = new LatencyHistogram();
+
+    private long startNanos;
+    private long endNanos;
+
+    LoadGenerator(Path socketPath, int connections, double rate, long durationNanos, int identities, ParameterSet set) {
+        this.address = UnixDomainSocketAddress.of(socketPath);
+        this.connections = connections;
+        this.periodNanos = rate > 0 ? (long) (1e9 / rate) : 0;
+        this.durationNanos = durationNanos;
+        this.identities = identities;
+        this.set = set;
+        this.ntt = new Ntt(set.n(), set.q());
+        this.mlkem = new Mlkem(set.n(), set.q());
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Path home = Path.of(System.getProperty("user.home"));
+        Path socketPath = Path.of(System.getProperty(SOCKET_PROPERTY, home.resolve("socket").toString()));
+        int connections = Integer.getInteger(CONNECTIONS_PROPERTY, 64);
+        double rate = Double.parseDouble(System.getProperty(RATE_PROPERTY, "0"));
+        long durationNanos = TimeUnit.SECONDS.toNanos(Long.getLong(DURATION_PROPERTY, 30));
+        int identities = Integer.getInteger(IDENTITIES_PROPERTY, 10_000);
+        ParameterSet set = ParameterSet.parse(System.getProperty(SET_PROPERTY, ParameterSet.DEFAULT.name()));
+
+        LoadGenerator generator = new LoadGenerator(socketPath, connections, rate, durationNanos, identities, set);
+        System.out.println("[Load] " + connections + " connections to " + socketPath + ", set " + set + ", rate "
+                + (rate > 0 ? rate + "/s" : "unlimited") + ", " + TimeUnit.NANOSECONDS.toSeconds(durationNanos) + " s");
+        generator.run();
+        generator.report();
+    }
+
+    void run() throws InterruptedException {
+        startNanos = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < connections; i++) {
+                executor.submit(this::runConnection);
+            }
+        }
+        endNanos = System.nanoTime();
+    }
+
+    /**
+     * Loop of one connection: takes the next scheduled handshake until the duration is over.
+     */
+    private void runConnection() {
+        Client client = new Client(set, ntt, mlkem);
+        while (true) {
+            long index = nextHandshake.getAndIncrement();
+            long scheduledStart = startNanos + index * periodNanos;
+            if (scheduledStart - startNanos >= durationNanos || System.nanoTime() - startNanos >= durationNanos) {
+                return;
+            }
+            long wait = scheduledStart - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            try {
+                runHandshake(client, identity(index), PASSWORD, periodNanos > 0 ? scheduledStart : System.nanoTime());
+            } catch (IOException | RuntimeException e) {
+                if (failures.sum() == 0) {
+                    System.err.println("[Load] Handshake failed: " + e);
+                }
+                failures.increment();
+            }
+        }
+    }
+
+    private byte[] identity(long index) {
+        // "user" and 7 digits, exactly Protocol.IDENTITYBYTESIZE ASCII characters
+        String identity = String.format(Locale.ROOT, "user%07d", index % identities);
+        return identity.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private void runHandshake(Client client, byte[] identity, byte[] password, long scheduledStart) throws IOException {
+        long t0 = System.nanoTime();
+        client.register(identity, password);
+        long t1 = System.nanoTime();
+        clientMath.record(t1 - t0);
+        FramedChannel framed = new FramedChannel(SocketChannel.open(StandardProtocolFamily.UNIX), bufferPool);
+        try {
+            framed.getChannel().connect(address);
+            long t2 = System.nanoTime();
+            connect.record(t2 - t1);
+            client.phase0Blocking(framed);
+            long t3 = System.nanoTime();
+            phase0.record(t3 - t2);
+            client.finishBlocking(framed);
+            long t4 = System.nanoTime();
+            finish.record(t4 - t3);
+            handshake.record(t4 - t0);
+            scheduled.record(t4 - scheduledStart);
+        } finally {
+            framed.close();
+        }
+    }
+
+    void report() {
+        double seconds = (endNanos - startNanos) / 1e9;
+        System.out.printf(Locale.ROOT, "[Load] %d handshakes, %d failed in %.1f s: %.1f handshakes/s%n",
+                handshake.getCount(), failures.sum(), seconds, handshake.getCount() / seconds);
+        System.out.println("[Load] client math  " + clientMath.summary());
+        System.out.println("[Load] connect      " + connect.summary());
+        System.out.println("[Load] phase0       " + phase0.summary());
+        System.out.println("[Load] finish       " + finish.summary());
+        System.out.println("[Load] handshake    " + handshake.summary());
+        System.out.println("[Load] scheduled    " + scheduled.summary());
+    }
+}
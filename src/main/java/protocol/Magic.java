@@ -10,19 +10,47 @@ import java.math.BigInteger;
  * Also implements Symmetric modulo as defined in
  * https://youtu.be/h5pfTIE6slU?si=-EeOGTV0QD5QzbpY&t=543
  * </p>
+ * <p>
+ * Functions on BigIntegers handle one coefficient. Polynomial versions handle all coefficients in one pass
+ * on primitive ints without branches and without allocation. Their bits (random bits, hints, extracted key)
+ * are packed into long[] bitsets of length bitsetLength(n): bit of coefficient i is bit (i % 64) of word i / 64,
+ * unused bits of the last word are 0. Coefficients must be in [0, q), as they are in class Polynomial.
+ * </p>
  */
 class Magic {
 
     private final BigInteger q;
+    private final BigInteger qQuarter;
+    private final BigInteger qHalf;
+    private final int qInt;
+    /**
+     * floor(q / 4)
+     */
+    private final int quarter;
+    /**
+     * (q - 1) / 2, the biggest result of symmetricModulo.
+     */
+    private final int half;
+    private final Metrics metrics;
 
     Magic(BigInteger q) {
         this.q = q;
+        this.qQuarter = q.divide(BigInteger.valueOf(4));
+        this.qHalf = q.subtract(BigInteger.ONE).divide(BigInteger.TWO);
+        this.qInt = q.intValueExact();
+        this.quarter = qQuarter.intValue();
+        this.half = qHalf.intValue();
+        this.metrics = Metrics.shared();
+    }
+
+    static int bitsetLength(int n) {
+        return (n + Long.SIZE - 1) / Long.SIZE;
     }
 
     int hintFunction(BigInteger x, int b) {
         x = symmetricModulo(x);  // Make sure that x is result of a symmetric modulo.
-        BigInteger leftBound = q.divide(BigInteger.valueOf(4)).negate().add(BigInteger.valueOf(b));  // floor after the division is implicit here
-        BigInteger rightBound = q.divide(BigInteger.valueOf(4)).add(BigInteger.valueOf(b));  // floor after the division is implicit here
+        BigInteger leftBound = qQuarter.negate().add(BigInteger.valueOf(b));  // floor after the division is implicit here
+        BigInteger rightBound = qQuarter.add(BigInteger.valueOf(b));  // floor after the division is implicit here
         return (x.compareTo(leftBound) >= 0 && x.compareTo(rightBound) <= 0) ? 0 : 1;
     }
 
@@ -34,11 +62,81 @@ class Magic {
     // We know, that q is odd (since it is prime), so this function is implemented only for this case.
     BigInteger symmetricModulo(BigInteger r) {
         r = r.mod(q);  // Make sure that r is in Z_q.
-        return r.compareTo((q.subtract(BigInteger.ONE)).divide(BigInteger.TWO)) <= 0 ? r : r.subtract(q);
+        return r.compareTo(qHalf) <= 0 ? r : r.subtract(q);
     }
 
     int robustExtractor(BigInteger x, int w) {
         x = symmetricModulo(x);  // Make sure that x is result of a symmetric modulo.
-        return symmetricModulo(x.add(BigInteger.valueOf(w).multiply((q.subtract(BigInteger.ONE)).divide(BigInteger.TWO)))).mod(BigInteger.TWO).intValue();
+        return symmetricModulo(x.add(BigInteger.valueOf(w).multiply(qHalf))).mod(BigInteger.TWO).intValue();
+    }
+
+    /**
+     * Same as symmetricModulo, but for r in [0, q).
+     */
+    private int symmetricModulo(int r) {
+        return r - (((half - r) >> 31) & qInt);  // half - r is negative exactly when r > half
+    }
+
+    /**
+     * Reconciliation works on the values of coefficients, so NTT form (which Magic can not undo) is a bug of the caller.
+     */
+    private static void requireCoefficients(Polynomial x) {
+        if (x.getDomain() != Polynomial.Domain.COEFFICIENT) {
+            throw new IllegalArgumentException("Reconciliation needs a polynomial in coefficient domain, see Ntt.nttInverse");
+        }
+    }
+
+    /**
+     * hints[i] = hintFunction(x[i], b[i]) for all coefficients.
+     */
+    void hintPolynomial(Polynomial x, long[] b, long[] hints) {
+        requireCoefficients(x);
+        int[] coeffs = x.getCoeffs();
+        for (int word = 0; word < bitsetLength(coeffs.length); word++) {
+            long bWord = b[word];
+            long hintWord = 0;
+            int end = Math.min(coeffs.length - word * Long.SIZE, Long.SIZE);
+            for (int bit = 0; bit < end; bit++) {
+                // x is inside [-q/4 + b, q/4 + b] iff t = x - b + q/4 is inside [0, 2 * (q/4)], so iff neither t
+                // nor 2 * (q/4) - t is negative. Everything stays far from int overflow, since q < 2^30.
+                int t = symmetricModulo(coeffs[word * Long.SIZE + bit]) - (int) ((bWord >>> bit) & 1) + quarter;
+                hintWord |= (long) ((t | (2 * quarter - t)) >>> 31) << bit;
+            }
+            hints[word] = hintWord;
+        }
+    }
+
+    /**
+     * hints[i] = signalFunction(e, y[i]) for all coefficients. All random bits are taken from one draw into randomBits,
+     * which must have bitsetLength(n) words and then holds the random bits b used.
+     */
+    void signalPolynomial(Engine e, Polynomial y, long[] randomBits, long[] hints) {
+        long begin = metrics.begin();
+        e.getRandomLongs(randomBits);
+        hintPolynomial(y, randomBits, hints);
+        metrics.end(Metrics.Stage.RECONCILIATION, begin);
+    }
+
+    /**
+     * key[i] = robustExtractor(x[i], hints[i]) for all coefficients.
+     */
+    void robustExtractorPolynomial(Polynomial x, long[] hints, long[] key) {
+        requireCoefficients(x);
+        long begin = metrics.begin();
+        int[] coeffs = x.getCoeffs();
+        for (int word = 0; word < bitsetLength(coeffs.length); word++) {
+            long hintWord = hints[word];
+            long keyWord = 0;
+            int end = Math.min(coeffs.length - word * Long.SIZE, Long.SIZE);
+            for (int bit = 0; bit < end; bit++) {
+                int w = (int) ((hintWord >>> bit) & 1);
+                int r = symmetricModulo(coeffs[word * Long.SIZE + bit]) + w * half;  // in [-half, q - 1]
+                r += (r >> 31) & qInt;
+                // parity of a negative int is also its lowest bit, so no mod 2 is needed
+                keyWord |= (long) (symmetricModulo(r) & 1) << bit;
+            }
+            key[word] = keyWord;
+        }
+        metrics.end(Metrics.Stage.RECONCILIATION, begin);
     }
 }
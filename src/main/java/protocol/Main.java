@@ -1,70 +1,91 @@
 package protocol;
 
 import java.io.IOException;
-import java.math.BigInteger;
-import java.net.StandardProtocolFamily;
-import java.net.UnixDomainSocketAddress;
-import java.nio.ByteBuffer;
-import java.nio.channels.ServerSocketChannel;
-import java.nio.channels.SocketChannel;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * This is a demo (and proof-of-concept) of the protocol https://eprint.iacr.org/2017/1196.pdf
  * <p>
- * N - polynomial size - must be power of 2 and fit into int data type
- * Q - defines Z_Q for coefficients in the polynomials - must be prime, must be congruent with 1 modulo 2 * N
- * ETA - defines Central binomial distribution when generating error polynomials.
+ * Parameters n, q and eta come from the parameter sets of class ParameterSet, the server serves all of them
+ * (or those listed in protocol.server.sets) and every client picks one.
+ * Server runs until it is killed and handles connections concurrently, see class Server for available modes.
+ * Run with --add-modules jdk.incubator.vector to enable the SIMD backend of Ntt (see class VectorNtt).
  * SOURCE for Server communication logic: https://www.baeldung.com/java-unix-domain-socket
  * SOURCE for simple message exchange: CHATGPT
  * </p>
  */
 public class Main {
 
-    private static final int N = 1024;
-    private static final BigInteger Q = BigInteger.valueOf(1073479681);
-    private static final int ETA = 3;
-
-    static byte[] publicSeed;
-
-    private static void sendMessage(SocketChannel channel, String message) throws IOException {
-        ByteBuffer buffer = ByteBuffer.wrap(message.getBytes());
-        while (buffer.hasRemaining()) {
-            channel.write(buffer);
-        }
-    }
+    /**
+     * Server mode can be chosen by the first argument or by the system property protocol.server.mode.
+     */
+    private static final String MODE_PROPERTY = "protocol.server.mode";
+    /**
+     * Comma-separated names of served parameter sets, all of them by default.
+     */
+    private static final String SETS_PROPERTY = "protocol.server.sets";
+    /**
+     * If set, NTT tables are loaded from this file (or computed and saved into it), so cold start skips number theory.
+     * Tables of other than the default parameter set are in files with suffix, see ParameterSet.file.
+     */
+    private static final String NTT_TABLES_PROPERTY = "protocol.ntt.tables";
+    /**
+     * File of the verifier store of the default parameter set, by default verifiers in the user home
+     * (next to the socket). Stores of other sets are in files with suffix, see ParameterSet.file.
+     */
+    private static final String VERIFIERS_PROPERTY = "protocol.verifiers";
+    private static final int VERIFIERS_CACHE_CAPACITY = 10_000;
+    /**
+     * Every this many seconds the latency breakdown (see class Metrics) is printed, 0 turns it off.
+     */
+    private static final String METRICS_PERIOD_PROPERTY = "protocol.metrics.period";
 
     public static void main(String[] args) throws IOException {
 
-        Protocol protocol = new Protocol(N, Q, ETA);
-
-        Path socketPath = Path.of(System.getProperty("user.home")).resolve("socket");
-        UnixDomainSocketAddress socketAddress = UnixDomainSocketAddress.of(socketPath);
-
-        try (ServerSocketChannel serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
-            serverChannel.bind(socketAddress);
+        String modeName = args.length > 0 ? args[0] : System.getProperty(MODE_PROPERTY, Server.Mode.VIRTUAL_THREADS.name());
+        Server.Mode mode = Server.Mode.parse(modeName);
 
-            try (SocketChannel channel = serverChannel.accept()) {
+        List<ParameterSet> sets = new ArrayList<>();
+        String setNames = System.getProperty(SETS_PROPERTY);
+        if (setNames == null) {
+            sets.addAll(List.of(ParameterSet.values()));
+        } else {
+            for (String name : setNames.split(",")) {
+                sets.add(ParameterSet.parse(name));
+            }
+        }
 
-                protocol.phase0(channel);
+        String nttTablesFile = System.getProperty(NTT_TABLES_PROPERTY);
+        if (nttTablesFile != null) {
+            for (ParameterSet set : sets) {
+                NttTables.loadOrCompute(set.file(Path.of(nttTablesFile)), set.n(), set.q());
+            }
+        }
 
-                // 2. Respond to client
-                String reply1 = "Hello, I am the server!";
-                sendMessage(channel, reply1);
-                System.out.println("[Server] Sent: " + reply1);
+        Path home = Path.of(System.getProperty("user.home"));
+        Path socketPath = home.resolve("socket");
+        Path verifiersFile = Path.of(System.getProperty(VERIFIERS_PROPERTY, home.resolve("verifiers").toString()));
 
-                // 3. Receive another message
-                String msg2 = readMessage(channel);
-                System.out.println("[Client] " + msg2);
+        long metricsPeriod = Long.getLong(METRICS_PERIOD_PROPERTY, 60);
+        if (metricsPeriod > 0) {
+            Metrics.shared().startReporting(metricsPeriod);
+        }
 
-                // 4. Final response
-                String reply2 = "Goodbye!";
-                sendMessage(channel, reply2);
-                System.out.println("[Server] Sent: " + reply2);
+        Map<ParameterSet, VerifierStore> verifiers = new EnumMap<>(ParameterSet.class);
+        try {
+            for (ParameterSet set : sets) {
+                verifiers.put(set, VerifierStore.open(set.file(verifiersFile), set.n(), set.q(), VERIFIERS_CACHE_CAPACITY));
             }
+            Server server = new Server(socketPath, mode, verifiers);
+            server.run();
         } finally {
-            Files.deleteIfExists(socketPath); // server owns the socket file
+            for (VerifierStore store : verifiers.values()) {
+                store.close();
+            }
         }
     }
 }
@@ -0,0 +1,195 @@
+package protocol;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Represents process-wide latency and throughput statistics of the handshake pipeline.
+ * <p>
+ * Every instrumented stage (see enum Stage) records its latency into its own LatencyHistogram and, when
+ * the event is enabled in a running JDK Flight Recorder recording, commits a StageEvent (protocol.Stage).
+ * Stages nest: a phase contains its XOF expansion, noise sampling and NTT transforms, which are recorded separately.
+ * Socket stages time one read or write syscall and count its bytes; for blocking channels that includes waiting
+ * for the peer. Phases also count bytes allocated by the running thread (HotSpot only). Components with counters
+ * of their own (pools and caches of a ParameterSuite) add them to the dump by addReport.
+ * Recording costs two System.nanoTime() calls and a few uncontended atomic increments, without locks and allocation,
+ * so it is always on. The whole breakdown is returned by dump and can be logged periodically by startReporting.
+ * All methods are thread-safe.
+ * </p>
+ */
+final class Metrics {
+
+    enum Stage {
+        PHASE0,
+        PHASE1,
+        PHASE2,
+        XOF,
+        NOISE,
+        NTT,
+        RECONCILIATION,
+        SOCKET_READ,
+        SOCKET_WRITE
+    }
+
+    @Name("protocol.Stage")
+    @Label("Protocol Stage")
+    @Category("Protocol")
+    @Description("One stage of the handshake pipeline, its duration is the elapsed field")
+    static final class StageEvent extends Event {
+
+        @Label("Stage")
+        String stage;
+
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS = threadMXBean();
+    private static final Metrics SHARED = new Metrics();
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Stage.values().length];
+    private final LongAdder[] allocatedBytes = new LongAdder[Stage.values().length];
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final Queue<Supplier<String>> reports = new ConcurrentLinkedQueue<>();
+
+    private Metrics() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+            allocatedBytes[i] = new LongAdder();
+        }
+    }
+
+    static Metrics shared() {
+        return SHARED;
+    }
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                && threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+            return threads;
+        }
+        return null;
+    }
+
+    /**
+     * Start of a stage, pass it to end.
+     */
+    long begin() {
+        return System.nanoTime();
+    }
+
+    void end(Stage stage, long begin) {
+        end(stage, begin, 0);
+    }
+
+    /**
+     * Records the stage started at begin, which transferred given number of bytes.
+     */
+    void end(Stage stage, long begin, long bytes) {
+        long elapsed = System.nanoTime() - begin;
+        latencies[stage.ordinal()].record(elapsed);
+        StageEvent event = new StageEvent();
+        if (event.isEnabled()) {
+            event.stage = stage.name();
+            event.elapsed = elapsed;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    /**
+     * Bytes allocated so far by the current thread, pass it to endAllocation. 0 if the JVM does not count them.
+     */
+    long beginAllocation() {
+        return THREADS == null ? 0 : THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    void endAllocation(Stage stage, long begin) {
+        if (THREADS != null) {
+            allocatedBytes[stage.ordinal()].add(THREADS.getCurrentThreadAllocatedBytes() - begin);
+        }
+    }
+
+    void bytesRead(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    void bytesWritten(long bytes) {
+        bytesOut.add(bytes);
+    }
+
+    /**
+     * Appends the line returned by report to every dump, until removeReport.
+     */
+    void addReport(Supplier<String> report) {
+        reports.add(report);
+    }
+
+    void removeReport(Supplier<String> report) {
+        reports.remove(report);
+    }
+
+    LatencyHistogram latency(Stage stage) {
+        return latencies[stage.ordinal()];
+    }
+
+    /**
+     * One line per recorded stage (latencies in microseconds and allocated bytes per call), the socket totals
+     * and one line per added report.
+     */
+    String dump() {
+        StringBuilder dump = new StringBuilder();
+        dump.append(String.format(Locale.ROOT, "[Metrics] bytes in=%d out=%d%n", bytesIn.sum(), bytesOut.sum()));
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram latency = latencies[stage.ordinal()];
+            long count = latency.getCount();
+            if (count == 0) {
+                continue;
+            }
+            dump.append(String.format(Locale.ROOT, "[Metrics] %-14s %s", stage, latency.summary()));
+            long allocated = allocatedBytes[stage.ordinal()].sum();
+            if (allocated != 0) {
+                dump.append(String.format(Locale.ROOT, " allocated=%d B/call", allocated / count));
+            }
+            dump.append(System.lineSeparator());
+        }
+        for (Supplier<String> report : reports) {
+            dump.append("[Metrics] ").append(report.get()).append(System.lineSeparator());
+        }
+        return dump.toString();
+    }
+
+    /**
+     * Prints dump to the standard output every periodSeconds from a daemon thread.
+     */
+    void startReporting(long periodSeconds) {
+        Thread.ofPlatform().daemon().name("metrics-reporter").start(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(periodSeconds * 1000);
+                    System.out.print(dump());
+                }
+            } catch (InterruptedException ignored) {
+                // reporter stops with the process
+            }
+        });
+    }
+}
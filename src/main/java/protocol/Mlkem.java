@@ -5,7 +5,10 @@ import java.math.BigInteger;
 /**
  * Extracted (and modified) all needed functions from MLKEM.
  * <p>
- * Functions are modified so they can dynamically adapt to different N, Q, ETA.
+ * Functions are modified so they can dynamically adapt to different N, Q, ETA: any n divisible by 8 (CBD works
+ * on whole bytes) and any q of exactly CANDIDATEBITS bits. Uniform sampling draws CANDIDATEBITS-bit candidates,
+ * so q must be below 2^30, and above 2^29, so that at least half of the candidates are kept (for
+ * q = 1073479681 of all parameter sets practically all of them).
  * However, their building blocks are heavily inspired by
  * https://github.com/bcgit/bc-java/blob/main/core/src/main/java/org/bouncycastle/pqc/crypto/mlkem/MLKEMIndCpa.java
  * and
@@ -14,18 +17,29 @@ import java.math.BigInteger;
  */
 class Mlkem {
 
+    static final int CANDIDATEBITS = 30;
+
     private final int n;
-    private final BigInteger q;
+    private final int qInt;
 
+    /**
+     * @throws IllegalArgumentException if q does not have exactly CANDIDATEBITS bits
+     */
     Mlkem(int n, BigInteger q) {
+        if (q.bitLength() != CANDIDATEBITS) {
+            throw new IllegalArgumentException("q must have exactly " + CANDIDATEBITS + " bits, got " + q);
+        }
         this.n = n;
-        this.q = q;
+        this.qInt = q.intValueExact();
     }
 
-    // TODO: Change it for dynamic n, q.
+    /**
+     * Candidates are 30-bit ints (so always non-negative), compared with q directly, without BigInteger.
+     */
     private int rejectionSampling(Polynomial outputBuffer, int coeffOff, int len, byte[] inpBuf, int inpBufLen) {
+        int[] coeffs = outputBuffer.getCoeffs();
         int ctr, pos;  // number of sampled coeffs and possition in inpBuf
-        BigInteger val0, val1, val2, val3;  // candidates for coefficients
+        int val0, val1, val2, val3;  // candidates for coefficients
         ctr = pos = 0;
         while (ctr < len && pos + 15 <= inpBufLen) {
             // The following should look like this:
@@ -35,62 +49,86 @@ class Mlkem {
             // val3 = 00C[0]4.1/4 C[10]1.1/2 C[10]2.1/2 C[11]1.1/2 C[11]2.1/2 C[12]1.1/2 C[12]2.1/2 C[14]2.1/2,
             // where each block is precisely 4 bits
             // and 00C[0]1.1/4 stands for 2 zero bits followed by first fourth from byte on position 0 in inpBuf.
-            val0 = BigInteger.valueOf(((((int)(inpBuf[pos +  0] & 0xFF)) << 22) & 0x30000000) |
+            val0 = ((((int)(inpBuf[pos +  0] & 0xFF)) << 22) & 0x30000000) |
                     ((((int)(inpBuf[pos +  1] & 0xFF)) << 20) & 0x0FF00000) |
                     ((((int)(inpBuf[pos +  2] & 0xFF)) << 12) & 0x000FF000) |
                     ((((int)(inpBuf[pos +  3] & 0xFF)) <<  4) & 0x00000FF0) |
-                    ((((int)(inpBuf[pos + 13] & 0xFF)) >>  4) & 0x0000000F));
-            val1 = BigInteger.valueOf(((((int)(inpBuf[pos +  0] & 0xFF)) << 24) & 0x30000000) |
+                    ((((int)(inpBuf[pos + 13] & 0xFF)) >>  4) & 0x0000000F);
+            val1 = ((((int)(inpBuf[pos +  0] & 0xFF)) << 24) & 0x30000000) |
                     ((((int)(inpBuf[pos +  4] & 0xFF)) << 20) & 0x0FF00000) |
                     ((((int)(inpBuf[pos +  5] & 0xFF)) << 12) & 0x000FF000) |
                     ((((int)(inpBuf[pos +  6] & 0xFF)) <<  4) & 0x00000FF0) |
-                    ((((int)(inpBuf[pos + 13] & 0xFF)) >>  0) & 0x0000000F));
-            val2 = BigInteger.valueOf(((((int)(inpBuf[pos +  0] & 0xFF)) << 26) & 0x30000000) |
+                    ((((int)(inpBuf[pos + 13] & 0xFF)) >>  0) & 0x0000000F);
+            val2 = ((((int)(inpBuf[pos +  0] & 0xFF)) << 26) & 0x30000000) |
                     ((((int)(inpBuf[pos +  7] & 0xFF)) << 20) & 0x0FF00000) |
                     ((((int)(inpBuf[pos +  8] & 0xFF)) << 12) & 0x000FF000) |
                     ((((int)(inpBuf[pos +  9] & 0xFF)) <<  4) & 0x00000FF0) |
-                    ((((int)(inpBuf[pos + 14] & 0xFF)) >>  4) & 0x0000000F));
-            val3 = BigInteger.valueOf(((((int)(inpBuf[pos +  0] & 0xFF)) << 28) & 0x30000000) |
+                    ((((int)(inpBuf[pos + 14] & 0xFF)) >>  4) & 0x0000000F);
+            val3 = ((((int)(inpBuf[pos +  0] & 0xFF)) << 28) & 0x30000000) |
                     ((((int)(inpBuf[pos + 10] & 0xFF)) << 20) & 0x0FF00000) |
                     ((((int)(inpBuf[pos + 11] & 0xFF)) << 12) & 0x000FF000) |
                     ((((int)(inpBuf[pos + 12] & 0xFF)) <<  4) & 0x00000FF0) |
-                    ((((int)(inpBuf[pos + 14] & 0xFF)) >>  0) & 0x0000000F));
+                    ((((int)(inpBuf[pos + 14] & 0xFF)) >>  0) & 0x0000000F);
             pos = pos + 15;
-            if (val0.compareTo(q) < 0) {
-                outputBuffer.setCoeffIndex(coeffOff + ctr, val0);
-                ctr++;
+            if (len - ctr >= 4) {
+                // Room for all four candidates, so each is written unconditionally and kept only if it is below q.
+                coeffs[coeffOff + ctr] = val0;
+                ctr += (val0 - qInt) >>> 31;
+                coeffs[coeffOff + ctr] = val1;
+                ctr += (val1 - qInt) >>> 31;
+                coeffs[coeffOff + ctr] = val2;
+                ctr += (val2 - qInt) >>> 31;
+                coeffs[coeffOff + ctr] = val3;
+                ctr += (val3 - qInt) >>> 31;
+                continue;
+            }
+            if (val0 < qInt) {
+                coeffs[coeffOff + ctr++] = val0;
             }
-            if (ctr < len && val1.compareTo(q) < 0) {
-                outputBuffer.setCoeffIndex(coeffOff + ctr, val1);
-                ctr++;
+            if (ctr < len && val1 < qInt) {
+                coeffs[coeffOff + ctr++] = val1;
             }
-            if (ctr < len && val2.compareTo(q) < 0) {
-                outputBuffer.setCoeffIndex(coeffOff + ctr, val2);
-                ctr++;
+            if (ctr < len && val2 < qInt) {
+                coeffs[coeffOff + ctr++] = val2;
             }
-            if (ctr < len && val3.compareTo(q) < 0) {
-                outputBuffer.setCoeffIndex(coeffOff + ctr, val3);
-                ctr++;
+            if (ctr < len && val3 < qInt) {
+                coeffs[coeffOff + ctr++] = val3;
             }
         }
         return ctr;
     }
 
-    // TODO: Change it for dynamic n, q.
-    // TODO: Solve q.intValue()
-    void generateUniformPolynomialNtt(Engine e, Polynomial a, byte[] seed) {
-        int KyberGenerateMatrixNBlocks = (int)  // its value is 23  // !!! Conversions BigInteger -> int
+    /**
+     * Size of the buffer needed by generateUniformPolynomialNtt: XOF blocks for n candidates on average,
+     * e.g. 23 blocks for n = 1024. Further blocks are squeezed only when too many candidates are rejected.
+     */
+    int uniformBufferSize(Engine e) {
+        int KyberGenerateMatrixNBlocks = (int)
                 (
                         (
-                                (float) 30 * n / 8  // how many bytes do I need to sample
-                                        * (float) (1 << 30) / q.intValue()  // (probability of success) ^ -1, SO together it is in average how many bytes we need for sampling
+                                (float) CANDIDATEBITS * n / 8  // how many bytes do I need to sample
+                                        * (float) (1 << CANDIDATEBITS) / qInt  // (probability of success) ^ -1, SO together it is in average how many bytes we need for sampling
                                         + (float) e.xofBlockBytes
                         )
                                 / e.xofBlockBytes  // thanks to `+ xBB / xBB` we now have the closest needed higher amount of xBB
                 );
+        return KyberGenerateMatrixNBlocks * e.xofBlockBytes;  // currently it is not divisible by 15!
+    }
+
+    /**
+     * Samples a uniformly (rejection sampling of XOF(seed) output) directly in NTT domain.
+     */
+    void generateUniformPolynomialNtt(Engine e, Polynomial a, byte[] seed) {
+        generateUniformPolynomialNtt(e, a, seed, new byte[uniformBufferSize(e)]);
+    }
+
+    /**
+     * Same as generateUniformPolynomialNtt(e, a, seed), but uses buf of size uniformBufferSize(e) instead of allocating it.
+     */
+    void generateUniformPolynomialNtt(Engine e, Polynomial a, byte[] seed, byte[] buf) {
         int k, ctr, off;
-        int buflen = KyberGenerateMatrixNBlocks * e.xofBlockBytes;  // currently it is not divisible by 15!
-        byte[] buf = new byte[buflen];
+        int buflen = buf.length;
+        a.setDomain(Polynomial.Domain.NTT);  // sampled directly in NTT domain
         e.xofAbsorb(seed);
         e.xofSqueezeBlocks(buf, 0, buflen);
 
@@ -113,25 +151,73 @@ class Mlkem {
         return r;
     }
 
-    // TODO: Change it for dynamic eta.
     // TODO: Figure out suitable eta value for given n and q.
+    /**
+     * Samples r from the centered binomial distribution with parameter eta: coefficient i is
+     * (sum of eta bits) - (sum of next eta bits) modulo q, taken from bits 2 * eta * i onwards of bytes
+     * (little-endian bit order, as in ML-KEM). bytes must have at least n * eta / 4 bytes.
+     * eta 2 and 3 have fast paths, all of them give the same result as the generic code.
+     */
     void generateCbdPolynomial(Polynomial r, byte[] bytes, int eta) {
-        long t, d;
-        int a, b;
+        r.setDomain(Polynomial.Domain.COEFFICIENT);
+        switch (eta) {
+            case 2 -> generateCbd2Polynomial(r.getCoeffs(), bytes);
+            case 3 -> generateCbd3Polynomial(r.getCoeffs(), bytes);
+            default -> generateCbdGenericPolynomial(r.getCoeffs(), bytes, eta);
+        }
+    }
 
-        for (int i = 0; i < n / 4; i++) {  // When eta is equal to 3.  // !!! Conversion to int !!!
-            t = convertByteTo24BitUnsignedInt(bytes, 3 * i);
-            d = t & 0x00249249;
+    private static long convertByteTo32BitUnsignedInt(byte[] x, int offset) {
+        return convertByteTo24BitUnsignedInt(x, offset) | ((long) (x[offset + 3] & 0xFF) << 24);
+    }
+
+    /**
+     * 8 coefficients from every 4 bytes.
+     */
+    private void generateCbd2Polynomial(int[] coeffs, byte[] bytes) {
+        for (int i = 0; i < n / 8; i++) {
+            long t = convertByteTo32BitUnsignedInt(bytes, 4 * i);
+            long d = (t & 0x55555555L) + ((t >> 1) & 0x55555555L);
+            for (int j = 0; j < 8; j++) {
+                int diff = (int) ((d >> (4 * j)) & 0x3) - (int) ((d >> (4 * j + 2)) & 0x3);
+                coeffs[8 * i + j] = diff + ((diff >> 31) & qInt);  // diff.mod(q) for |diff| < q
+            }
+        }
+    }
+
+    /**
+     * 4 coefficients from every 3 bytes.
+     */
+    private void generateCbd3Polynomial(int[] coeffs, byte[] bytes) {
+        for (int i = 0; i < n / 4; i++) {
+            long t = convertByteTo24BitUnsignedInt(bytes, 3 * i);
+            long d = t & 0x00249249;
             d = d + ((t >> 1) & 0x00249249);
             d = d + ((t >> 2) & 0x00249249);
-            for (int j = 0; j < 4; j++)
-            {
-                a = (short)((d >> (6 * j + 0)) & 0x7);
-                b = (short)((d >> (6 * j + 3)) & 0x7);
-                short diffShort = (short)(a - b);
-                BigInteger diffBI = BigInteger.valueOf(diffShort);
-                r.setCoeffIndex(4 * i + j, diffBI.mod(q));
+            for (int j = 0; j < 4; j++) {
+                int diff = (int) ((d >> (6 * j)) & 0x7) - (int) ((d >> (6 * j + 3)) & 0x7);
+                coeffs[4 * i + j] = diff + ((diff >> 31) & qInt);  // diff.mod(q) for |diff| < q
+            }
+        }
+    }
+
+    /**
+     * Reads the bits through a 64-bit accumulator, so any eta up to 28 works.
+     */
+    private void generateCbdGenericPolynomial(int[] coeffs, byte[] bytes, int eta) {
+        long mask = (1L << eta) - 1;
+        long acc = 0;  // lowest accBits bits are not used yet
+        int accBits = 0;
+        int pos = 0;
+        for (int i = 0; i < n; i++) {
+            while (accBits < 2 * eta) {
+                acc |= (long) (bytes[pos++] & 0xFF) << accBits;
+                accBits += 8;
             }
+            int diff = Long.bitCount(acc & mask) - Long.bitCount((acc >>> eta) & mask);
+            coeffs[i] = diff + ((diff >> 31) & qInt);  // diff.mod(q) for |diff| < q
+            acc >>>= 2 * eta;
+            accBits -= 2 * eta;
         }
     }
 }
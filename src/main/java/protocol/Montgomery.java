@@ -0,0 +1,108 @@
+package protocol;
+
+import java.math.BigInteger;
+
+/**
+ * Represents modular arithmetic on primitive ints for odd modulus q smaller than 2^30.
+ * <p>
+ * Multiplication uses signed Montgomery reduction with R = 2^32, so a product of two coefficients fits into long
+ * and is reduced without any division. Addition and subtraction use a conditional (branch-free) correction by q.
+ * All public results are canonical, so they lie in [0, q) exactly as the results of BigInteger.mod(q).
+ * Heavily inspired by
+ * https://github.com/pq-crystals/dilithium/blob/master/ref/reduce.c
+ * </p>
+ */
+class Montgomery {
+
+    private static final BigInteger R = BigInteger.ONE.shiftLeft(32);
+
+    private final int q;
+    /**
+     * q^(-1) modulo 2^32.
+     */
+    private final int qInv;
+    /**
+     * R^2 modulo q. Multiplying by it converts a value into Montgomery form.
+     */
+    private final int rSquared;
+
+    Montgomery(BigInteger q) {
+        if (q.bitLength() > 30 || !q.testBit(0)) {
+            throw new IllegalArgumentException("Montgomery arithmetic needs odd q smaller than 2^30, got " + q);
+        }
+        this.q = q.intValue();
+        int inv = this.q;  // q * q = 1 modulo 8, so q is its own inverse on lowest 3 bits.
+        for (int i = 0; i < 5; i++) {  // Newton iteration doubles the number of correct bits.
+            inv *= 2 - this.q * inv;
+        }
+        this.qInv = inv;
+        this.rSquared = R.multiply(R).mod(q).intValue();
+    }
+
+    int getQ() {
+        return q;
+    }
+
+    int getQInv() {
+        return qInv;
+    }
+
+    int getRSquared() {
+        return rSquared;
+    }
+
+    /**
+     * For |a| < q * 2^31 returns a * 2^(-32) modulo q in (-q, q).
+     */
+    int reduce(long a) {
+        int t = (int) a * qInv;
+        return (int) ((a - (long) t * q) >> 32);
+    }
+
+    /**
+     * Maps (-q, q) to [0, q).
+     */
+    int normalize(int a) {
+        return a + ((a >> 31) & q);
+    }
+
+    /**
+     * Returns a * b * 2^(-32) modulo q in [0, q). If b is in Montgomery form, the result is just a * b modulo q.
+     */
+    int multiplyMontgomery(int a, int b) {
+        return normalize(reduce((long) a * b));
+    }
+
+    /**
+     * Returns a * b modulo q in [0, q) for a, b both in normal form.
+     */
+    int multiply(int a, int b) {
+        return multiplyMontgomery(reduce((long) a * b), rSquared);
+    }
+
+    int add(int a, int b) {
+        return normalize(a + b - q);
+    }
+
+    int subtract(int a, int b) {
+        return normalize(a - b);
+    }
+
+    int negate(int a) {
+        return normalize(-a);
+    }
+
+    /**
+     * Same as toMontgomery(BigInteger), for x in [0, q) without allocating anything.
+     */
+    int toMontgomery(int x) {
+        return multiplyMontgomery(x, rSquared);
+    }
+
+    /**
+     * Converts value from Z_q into Montgomery form, so into x * 2^32 modulo q.
+     */
+    int toMontgomery(BigInteger x) {
+        return x.multiply(R).mod(BigInteger.valueOf(q)).intValue();
+    }
+}
@@ -0,0 +1,189 @@
+package protocol;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Represents the demultiplexer of one connection which carries many independent handshakes (streams).
+ * <p>
+ * A client (e.g. a gateway) switches its connection to multiplexing by the first frame MULTIPLEX (see isRequest).
+ * Every following frame in both directions starts with STREAMIDBYTESIZE bytes big-endian stream id chosen
+ * by the client, the rest is the message of the ordinary one-handshake connection: phase0 message, hello,
+ * client message, goodbye. A frame with a new id opens the stream, goodbye ends it, so the id can be used again.
+ * A stream which fails (or breaks the order of messages) is reset: the server sends its id with no message
+ * and forgets the stream, other streams go on. Malformed frames and too many open streams end the connection.
+ * Every stream has its own Transcript of its messages without the stream id, the same as on a whole connection,
+ * so the connection itself is not hashed.
+ * <p>
+ * Frames are passed to onFrame by one reader (the event loop or the reading thread of the connection), phases run
+ * concurrently on workers, and every reply is handed to replies as soon as it is ready, in any order.
+ * replies is called from any thread and gets pooled payloads, it must queue them as frames (or release them).
+ * </p>
+ */
+final class Multiplexer {
+
+    static final String REQUEST = "MULTIPLEX";
+    static final int STREAMIDBYTESIZE = 4;
+    static final int MAXSTREAMS = 1024;
+
+    private enum State {
+        PROCESSING_PHASE0,
+        READ_MESSAGE
+    }
+
+    private static final class Stream {
+        private final int id;
+        private final Protocol protocol;
+        /**
+         * Written by the reader and by the worker of phase0, one after another.
+         */
+        private volatile State state = State.PROCESSING_PHASE0;
+
+        private Stream(int id, Protocol protocol) {
+            this.id = id;
+            this.protocol = protocol;
+        }
+    }
+
+    private final Server server;
+    private final BufferPool pool;
+    private final Executor workers;
+    private final Consumer<ByteBuffer> replies;
+    private final Map<Integer, Stream> streams = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    Multiplexer(Server server, BufferPool pool, Executor workers, Consumer<ByteBuffer> replies) {
+        this.server = server;
+        this.pool = pool;
+        this.workers = workers;
+        this.replies = replies;
+    }
+
+    /**
+     * True if the first frame of a connection asks for multiplexing. It can not be a phase0 message, which is longer.
+     */
+    static boolean isRequest(ByteBuffer frame) {
+        return frame.remaining() == REQUEST.length()
+                && REQUEST.contentEquals(StandardCharsets.US_ASCII.decode(frame.duplicate()));
+    }
+
+    /**
+     * Routes one received frame (from the pool) to its stream, takes its ownership.
+     * @throws ProtocolException if the frame has no stream id or it would open more than MAXSTREAMS streams
+     */
+    void onFrame(ByteBuffer frame) throws ProtocolException {
+        if (frame.remaining() < STREAMIDBYTESIZE) {
+            pool.release(frame);
+            throw new ProtocolException("Multiplexed frame without stream id");
+        }
+        int streamId = frame.getInt();
+        Stream stream = streams.get(streamId);
+        if (stream == null) {
+            if (streams.size() >= MAXSTREAMS) {
+                pool.release(frame);
+                throw new ProtocolException("More than " + MAXSTREAMS + " open streams");
+            }
+            Protocol protocol;
+            try {
+                protocol = server.newProtocol(frame);
+            } catch (IllegalArgumentException e) {
+                pool.release(frame);
+                reply(streamId, new byte[0]);  // reset, the stream was never opened
+                return;
+            }
+            Stream opened = new Stream(streamId, protocol);
+            streams.put(streamId, opened);
+            try {
+                workers.execute(() -> processPhase0(opened, frame));
+            } catch (RejectedExecutionException e) {
+                pool.release(frame);
+                reset(opened);
+            }
+            return;
+        }
+        stream.protocol.getTranscript().updateFrame(frame);
+        pool.release(frame);  // the client message itself is not used yet
+        if (stream.state != State.READ_MESSAGE) {
+            reset(stream);  // next message before hello
+            return;
+        }
+        end(stream);
+        reply(stream, Server.GOODBYE.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Runs on a worker thread.
+     */
+    private void processPhase0(Stream stream, ByteBuffer frame) {
+        try {
+            stream.protocol.phase0(frame);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[Server] Stream " + stream.id + " failed: " + e);
+            reset(stream);
+            return;
+        } finally {
+            pool.release(frame);
+        }
+        if (streams.get(stream.id) != stream) {
+            return;  // reset meanwhile, the client already knows
+        }
+        stream.state = State.READ_MESSAGE;  // before hello, the client may answer it at once
+        reply(stream, Server.HELLO.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void reset(Stream stream) {
+        if (end(stream)) {
+            reply(stream.id, new byte[0]);
+        }
+    }
+
+    /**
+     * Forgets the stream and frees its protocol, unless another thread (reader or worker) already did.
+     * @return true if this call ended the stream
+     */
+    private boolean end(Stream stream) {
+        if (!streams.remove(stream.id, stream)) {
+            return false;
+        }
+        stream.protocol.close();
+        return true;
+    }
+
+    /**
+     * Message of a stream, also fed into its transcript.
+     */
+    private void reply(Stream stream, byte[] message) {
+        stream.protocol.getTranscript().updateFrame(ByteBuffer.wrap(message));
+        reply(stream.id, message);
+    }
+
+    /**
+     * Hands stream id and message (nothing for a reset) to replies, unless the connection is already closed.
+     */
+    private void reply(int streamId, byte[] bytes) {
+        if (closed) {
+            return;
+        }
+        ByteBuffer payload = pool.acquire(STREAMIDBYTESIZE + bytes.length);
+        payload.putInt(streamId).put(bytes).flip();
+        replies.accept(payload);
+    }
+
+    /**
+     * Called when the connection ends: frees all open streams and drops their replies still to come.
+     * A worker may still run phase0 of some stream, which does not touch the freed off-heap state.
+     */
+    void close() {
+        closed = true;
+        for (Stream stream : streams.values()) {
+            end(stream);
+        }
+    }
+}
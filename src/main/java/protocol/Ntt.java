@@ -1,223 +1,308 @@
 package protocol;
 
 import java.math.BigInteger;
-import java.util.*;
+import java.util.Arrays;
 
 /**
  * Represents all math operations with objects of class Polynomial. For efficiency, everything is done in NTT domain.
  * <p>
- * When an instance is constructed, arrays zetas and zetas inverted are computed.
+ * When an instance is constructed, arrays zetas and zetas inverted (in Montgomery form) are taken from NttTables,
+ * which computes them only once per process for each pair (n, q). So constructing Ntt is cheap.
  * Otherwise, provides just utility functions add, inverse, subtracts, multiply, create constant two polynomial.
+ * All coefficients are primitive ints in [0, q), so no transform allocates anything per coefficient.
+ * Results are the same as the results of the BigInteger implementation in class NttReference.
+ * Operations check domains of their operands (see Polynomial.Domain) and never transform them: pointwise products
+ * need all operands in NTT domain, linear operations need both operands in the same domain, otherwise they throw
+ * IllegalStateException. So an operand (which may be shared, e.g. pooled s1) is never modified unless it is also
+ * the destination. Transforms are explicit too: convertToNtt / nttForward need a polynomial in coefficient domain,
+ * convertFromNtt / nttInverse one in NTT domain, and throw IllegalStateException for the other one, so a transform
+ * is never skipped or done twice by mistake. Results of pointwise products are in NTT domain, of linear operations
+ * in the domain of their operands.
+ * If module jdk.incubator.vector is present, long runs of coefficients are processed by SIMD backend VectorNtt,
+ * the rest (small-stride layers) by scalar code. Backend can be turned off by -Dprotocol.ntt.vector=false.
  * NTT stuff heavily inspired by https://electricdusk.com/ntt.html
  * </p>
  */
 class Ntt {
 
+    private static final String VECTOR_PROPERTY = "protocol.ntt.vector";
+    private static final boolean VECTOR_ENABLED = Boolean.parseBoolean(System.getProperty(VECTOR_PROPERTY, "true"))
+            && ModuleLayer.boot().findModule(VectorNtt.MODULE).isPresent();
+
     private final int n;
     private final BigInteger q;
+    private final Montgomery montgomery;
+
+    private final int[] zetas;
+    private final int[] zetasInvertedNegated;
+    private final int twoDivisor;
+    /**
+     * Null if the SIMD backend is not available.
+     */
+    private final VectorNtt vectorNtt;
+    private final Metrics metrics;
+
+    Ntt(int n, BigInteger q) {
+        this(NttTables.get(n, q));
+    }
 
-    private final List<BigInteger> zetas = new ArrayList<>();
-    private final List<BigInteger> zetasInverted = new ArrayList<>();
+    Ntt(NttTables tables) {
+        this.n = tables.getN();
+        this.q = tables.getQ();
+        this.montgomery = tables.getMontgomery();
+        this.zetas = tables.getZetas();
+        this.zetasInvertedNegated = tables.getZetasInvertedNegated();
+        this.twoDivisor = tables.getTwoDivisor();
+        VectorNtt backend = VECTOR_ENABLED ? VectorNtt.create(montgomery) : null;
+        this.vectorNtt = (backend != null && n % backend.length() == 0) ? backend : null;
+        this.metrics = Metrics.shared();
+    }
 
-    private final List<List<ModuloPoly>> nttTree = new ArrayList<>();
+    Polynomial generateConstantTwoPolynomialNtt() {
+        int[] coeffs = new int[n];
+        Arrays.fill(coeffs, 2);
+        return new Polynomial(coeffs, q, Polynomial.Domain.NTT);  // NTT of a constant is the same constant everywhere
+    }
+
+    Polynomial add(Polynomial a, Polynomial b) {
+        Polynomial result = new Polynomial(new int[n], q);
+        add(result, a, b);
+        return result;
+    }
+
+    Polynomial inverse(Polynomial a) {
+        Polynomial result = new Polynomial(new int[n], q);
+        inverse(result, a);
+        return result;
+    }
+
+    Polynomial sub(Polynomial a, Polynomial b) {
+        Polynomial result = new Polynomial(new int[n], q);
+        sub(result, a, b);
+        return result;
+    }
 
     /**
-     * Computes tree of modulo polynomials. Everything from layer X^(n//2) to X^1.
+     * @throws IllegalStateException if inputPoly is already in NTT domain
      */
-    private void computeNttTree() {
-        int powerX = n / 2;
-        BigInteger indexZeta = BigInteger.valueOf(4);
-        List<ModuloPoly> fstLayer = new ArrayList<>();
-        fstLayer.add(new ModuloPoly(true, BigInteger.ONE, indexZeta));
-        fstLayer.add(new ModuloPoly(false, BigInteger.ONE, indexZeta));
-        nttTree.add(fstLayer);
-
-        while (powerX > 1) {
-
-            powerX = powerX / 2;
-            indexZeta = indexZeta.multiply(BigInteger.TWO);
-
-            List<ModuloPoly> newLayer = new ArrayList<>();
-            List<ModuloPoly> lstLayer = nttTree.getLast();
-            for (ModuloPoly poly : lstLayer) {
-                BigInteger powerZeta = poly.getPowerZeta();
-                if (poly.getPlus()) {
-                    powerZeta = powerZeta.add(poly.getIndexZeta().divide(BigInteger.TWO));
-                }
-                ModuloPoly plusPoly = new ModuloPoly(true, powerZeta, indexZeta);
-                ModuloPoly minusPoly = new ModuloPoly(false, powerZeta, indexZeta);
-                newLayer.add(plusPoly);
-                newLayer.add(minusPoly);
-            }
-            nttTree.add(newLayer);
-        }
+    Polynomial convertToNtt(Polynomial inputPoly) {
+        Polynomial polyNtt = new Polynomial(inputPoly.getCoeffs().clone(), q, inputPoly.getDomain());
+        nttForward(polyNtt);
+        return polyNtt;
+    }
+
+    Polynomial multiplyNttPolys(Polynomial a, Polynomial b) {
+        Polynomial result = new Polynomial(new int[n], q, Polynomial.Domain.NTT);
+        multiplyNttPolys(result, a, b);
+        return result;
     }
 
     /**
-     * Generates arrays zetas and zetas inverted by exponentiating parameter zeta.
-     * @param zeta
+     * @throws IllegalStateException if inputPoly is already in coefficient domain
      */
-    private void generateArrays(BigInteger zeta) {
-        BigInteger nRoot = BigInteger.TWO.multiply(BigInteger.valueOf(n));
-        for (List<ModuloPoly> layer: nttTree) {
-            for (int i = 0; i < layer.size(); i++) {
-                if (i % 2 == 1) {  // There is still + zeta, - zeta. So save it just as one zeta (the plus one).
-                    continue;
-                }
-                ModuloPoly poly = layer.get(i);
-                BigInteger power = poly.getPowerZeta();
-                BigInteger index = poly.getIndexZeta();
-                BigInteger z = zeta.modPow(nRoot.divide(index), q).modPow(power, q);
-                BigInteger zInverted = z.modPow(BigInteger.valueOf(-1), q);
-                zetas.add(z);
-                zetasInverted.add(zInverted);
-            }
-        }
+    Polynomial convertFromNtt(Polynomial inputPoly) {
+        Polynomial poly = new Polynomial(inputPoly.getCoeffs().clone(), q, inputPoly.getDomain());
+        nttInverse(poly);
+        return poly;
     }
 
-    private Set<BigInteger> findPrimeFactors(BigInteger x) {
-        BigInteger i = BigInteger.TWO;
-        Set<BigInteger> primeFactors = new HashSet<>();
-        while ((i.multiply(i)).compareTo(x) <= 0) {  // Stop in square root.
-            if (x.mod(i).equals(BigInteger.ZERO)) {  // i divides x.
-                x = x.divide(i);
-                primeFactors.add(i);
-            } else {
-                i = i.add(BigInteger.ONE);  // Increment i.
-            }
-        }
-        if (x.compareTo(BigInteger.ONE) > 0) {  // There remains one prime.
-            primeFactors.add(x);
+    /**
+     * Records the common domain of a and b as the domain of dst.
+     * @throws IllegalStateException if a and b are in different domains
+     */
+    private static void matchDomains(Polynomial dst, Polynomial a, Polynomial b) {
+        if (a.getDomain() != b.getDomain()) {
+            throw new IllegalStateException("Operands are in different domains, " + a.getDomain() + " and " + b.getDomain());
         }
-        return primeFactors;
+        dst.setDomain(a.getDomain());
     }
 
     /**
-     * Compute 2*n-th primitive root of one modulo q.
-     * <p>
-     * Find generator g of a group Z_q. Primitive root is then g ^ ((q - 1) / 2 * n).
-     * Firstly randomly incrementally choose possible g. Check that g ^ (q - 1) is congruent to 1 modulo q.
-     * Factorize (q - 1) and check, that there is no smoller exponent y s. t. g ^ y is congruent to 1 modulo q.
-     * If not, g is our generator. Compute primitive root and return it.
-     * </p>
+     * @throws IllegalStateException if x is not in NTT domain
      */
-    private BigInteger computePrimitiveRoot() {
-        BigInteger exp = (q.subtract(BigInteger.ONE)).divide((BigInteger.TWO).multiply(BigInteger.valueOf(n)));
-        Set<BigInteger> primeFactors = findPrimeFactors(q.subtract(BigInteger.ONE));
-        for (BigInteger g = BigInteger.TWO; g.compareTo(q) < 0; g = g.add(BigInteger.ONE)) {
-            BigInteger x = g.modPow(exp, q);
-            if ((g.modPow(q.subtract(BigInteger.ONE), q)).compareTo(BigInteger.ONE) != 0) {
-                continue;
-            }
-            boolean isPrimitive = true;
-            for (BigInteger pf : primeFactors) {
-                if (g.modPow((q.subtract(BigInteger.ONE)).divide(pf), q).compareTo(BigInteger.ONE) == 0) {
-                    isPrimitive = false;
-                    break;
-                }
-            }
-            if (isPrimitive) {
-                return x;
-            }
+    private static void requireNtt(Polynomial x) {
+        if (x.getDomain() != Polynomial.Domain.NTT) {
+            throw new IllegalStateException("Pointwise product needs operands in NTT domain, see nttForward");
         }
-        return BigInteger.valueOf(-1);
     }
 
-    private void computeZetaArrays() {
-        computeNttTree();
-        BigInteger zeta = computePrimitiveRoot();
-        generateArrays(zeta);
+    // ---------- Allocation-free variants. Destination may be the same object as any of the operands. ---------- //
+
+    void add(Polynomial dst, Polynomial a, Polynomial b) {
+        matchDomains(dst, a, b);
+        int[] aCoeffs = a.getCoeffs();
+        int[] bCoeffs = b.getCoeffs();
+        int[] resultingCoeffs = dst.getCoeffs();
+        if (vectorNtt != null) {
+            vectorNtt.add(aCoeffs, bCoeffs, resultingCoeffs);
+            return;
+        }
+        for (int i = 0; i < n; i = i + 1) {
+            resultingCoeffs[i] = montgomery.add(aCoeffs[i], bCoeffs[i]);
+        }
     }
 
-    Ntt(int n, BigInteger q) {
-        this.n = n;
-        this.q = q;
-        computeZetaArrays();
+    void inverse(Polynomial dst, Polynomial a) {
+        dst.setDomain(a.getDomain());
+        int[] aCoeffs = a.getCoeffs();
+        int[] resultingCoeffs = dst.getCoeffs();
+        for (int i = 0; i < n; i = i + 1) {
+            resultingCoeffs[i] = montgomery.negate(aCoeffs[i]);
+        }
     }
 
-    Polynomial generateConstantTwoPolynomialNtt() {
-        BigInteger[] coeffs = new BigInteger[n];
-        Arrays.fill(coeffs, BigInteger.TWO);
-        return new Polynomial(coeffs, q);
+    /**
+     * Subtracts directly, so unlike add(a, inverse(b)) it needs no temporary polynomial.
+     */
+    void sub(Polynomial dst, Polynomial a, Polynomial b) {
+        matchDomains(dst, a, b);
+        int[] aCoeffs = a.getCoeffs();
+        int[] bCoeffs = b.getCoeffs();
+        int[] resultingCoeffs = dst.getCoeffs();
+        if (vectorNtt != null) {
+            vectorNtt.subtract(aCoeffs, bCoeffs, resultingCoeffs);
+            return;
+        }
+        for (int i = 0; i < n; i = i + 1) {
+            resultingCoeffs[i] = montgomery.subtract(aCoeffs[i], bCoeffs[i]);
+        }
     }
 
-    Polynomial add(Polynomial a, Polynomial b) {
-        BigInteger[] resultingCoeffs = new BigInteger[n];
+    void multiplyNttPolys(Polynomial dst, Polynomial a, Polynomial b) {
+        requireNtt(a);
+        requireNtt(b);
+        dst.setDomain(Polynomial.Domain.NTT);
+        int[] aCoeffs = a.getCoeffs();
+        int[] bCoeffs = b.getCoeffs();
+        int[] resultingCoeffs = dst.getCoeffs();
+        if (vectorNtt != null) {
+            vectorNtt.multiply(aCoeffs, bCoeffs, resultingCoeffs);
+            return;
+        }
         for (int i = 0; i < n; i = i + 1) {
-            resultingCoeffs[i] = a.getCoeffIndex(i).add(b.getCoeffIndex(i)).mod(q);
+            resultingCoeffs[i] = montgomery.multiply(aCoeffs[i], bCoeffs[i]);
         }
-        return new Polynomial(resultingCoeffs, q);
     }
 
-    Polynomial inverse(Polynomial a) {
-        BigInteger[] resultingCoeffs = new BigInteger[n];
+    /**
+     * dst = c * a for a small constant c in [0, q).
+     * Doubling (the 2e terms of the protocol) is done by a modular addition, other constants by one Montgomery reduction.
+     */
+    void multiplyScalar(Polynomial dst, Polynomial a, int c) {
+        if (c == 2) {
+            add(dst, a, a);
+            return;
+        }
+        dst.setDomain(a.getDomain());
+        int[] aCoeffs = a.getCoeffs();
+        int[] resultingCoeffs = dst.getCoeffs();
+        int cMontgomery = montgomery.toMontgomery(c);
+        if (vectorNtt != null) {
+            vectorNtt.multiplyConstant(aCoeffs, cMontgomery, resultingCoeffs);
+            return;
+        }
         for (int i = 0; i < n; i = i + 1) {
-            resultingCoeffs[i] = a.getCoeffIndex(i).negate().mod(q);
+            resultingCoeffs[i] = montgomery.multiplyMontgomery(aCoeffs[i], cMontgomery);
         }
-        return new Polynomial(resultingCoeffs, q);
     }
 
-    Polynomial sub(Polynomial a, Polynomial b) {
-        return add(a, inverse(b));
+    /**
+     * dst = a * s + c * e (pointwise, so all of them in NTT domain) for a small constant c in [0, q).
+     * <p>
+     * Fused into a single pass: (a * s * 2^(-32)) * 2^64 + (c * 2^32) * e is below 2 * q^2 < q * 2^31,
+     * so the whole sum needs just one more Montgomery reduction and no temporary polynomial.
+     * </p>
+     */
+    void multiplyAddScaled(Polynomial dst, Polynomial a, Polynomial s, int c, Polynomial e) {
+        requireNtt(a);
+        requireNtt(s);
+        requireNtt(e);
+        dst.setDomain(Polynomial.Domain.NTT);
+        int[] aCoeffs = a.getCoeffs();
+        int[] sCoeffs = s.getCoeffs();
+        int[] eCoeffs = e.getCoeffs();
+        int[] resultingCoeffs = dst.getCoeffs();
+        int cMontgomery = montgomery.toMontgomery(c);
+        if (vectorNtt != null) {
+            vectorNtt.multiplyAddScaled(aCoeffs, sCoeffs, cMontgomery, eCoeffs, resultingCoeffs);
+            return;
+        }
+        long rSquared = montgomery.getRSquared();
+        for (int i = 0; i < n; i = i + 1) {
+            long as = (long) montgomery.reduce((long) aCoeffs[i] * sCoeffs[i]) * rSquared;
+            resultingCoeffs[i] = montgomery.normalize(montgomery.reduce(as + (long) cMontgomery * eCoeffs[i]));
+        }
     }
 
-    Polynomial convertToNtt(Polynomial inputPoly) {
-        Polynomial polyNtt = new Polynomial(inputPoly.getCoeffs(), q);
+    /**
+     * Same as convertToNtt, but overwrites coefficients of poly.
+     * @throws IllegalStateException if poly is already in NTT domain
+     */
+    void nttForward(Polynomial poly) {
+        if (poly.getDomain() != Polynomial.Domain.COEFFICIENT) {
+            throw new IllegalStateException("Polynomial is already in NTT domain");
+        }
+        poly.setDomain(Polynomial.Domain.NTT);
+        long begin = metrics.begin();
+        int[] coeffs = poly.getCoeffs();
         int zetaIndex = 0;
 
-        int numOfLayers = (int) (Math.log(n) / Math.log(2));
-        for (int layer = 0; layer < numOfLayers; layer++) {
-            int numOfSubpolys = (int) Math.pow(2, layer);
-            int lenOfSubpoly = n / numOfSubpolys;
-            for (int subpolyCounter = 0; subpolyCounter < numOfSubpolys; subpolyCounter++) {
-                int polyLstIndex = subpolyCounter * lenOfSubpoly - 1;
-                for (int subpolyIndex = polyLstIndex + 1; subpolyIndex < polyLstIndex + 1 + lenOfSubpoly / 2; subpolyIndex++) {
-                    int subpolyHalfIndex = subpolyIndex + lenOfSubpoly / 2;
-                    BigInteger oldSubpolyCoeff = polyNtt.getCoeffIndex(subpolyIndex);
-                    BigInteger oldSubpolyHalfCoeff = polyNtt.getCoeffIndex(subpolyHalfIndex);
-                    polyNtt.setCoeffIndex(subpolyIndex, (oldSubpolyCoeff.subtract(zetas.get(zetaIndex).multiply(oldSubpolyHalfCoeff))).mod(q));
-                    polyNtt.setCoeffIndex(subpolyHalfIndex, (oldSubpolyCoeff.add(zetas.get(zetaIndex).multiply(oldSubpolyHalfCoeff))).mod(q));
+        for (int lenOfSubpoly = n; lenOfSubpoly >= 2; lenOfSubpoly >>= 1) {
+            int halfLen = lenOfSubpoly >> 1;
+            for (int subpolyStart = 0; subpolyStart < n; subpolyStart += lenOfSubpoly) {
+                int zeta = zetas[zetaIndex++];
+                if (vectorNtt != null && halfLen >= vectorNtt.length()) {
+                    vectorNtt.forwardButterflies(coeffs, subpolyStart, halfLen, zeta);
+                    continue;
+                }
+                for (int i = subpolyStart; i < subpolyStart + halfLen; i++) {
+                    int t = montgomery.multiplyMontgomery(coeffs[i + halfLen], zeta);
+                    int c = coeffs[i];
+                    coeffs[i] = montgomery.subtract(c, t);
+                    coeffs[i + halfLen] = montgomery.add(c, t);
                 }
-                zetaIndex++;
             }
         }
-
-        return polyNtt;
+        metrics.end(Metrics.Stage.NTT, begin);
     }
 
-    Polynomial multiplyNttPolys(Polynomial a, Polynomial b) {
-        BigInteger[] resultingCoeffs = new BigInteger[n];
-        for (int i = 0; i < n; i = i + 1) {
-            resultingCoeffs[i] = a.getCoeffIndex(i).multiply(b.getCoeffIndex(i)).mod(q);
+    /**
+     * Same as convertFromNtt, but overwrites coefficients of poly.
+     * @throws IllegalStateException if poly is already in coefficient domain
+     */
+    void nttInverse(Polynomial poly) {
+        if (poly.getDomain() != Polynomial.Domain.NTT) {
+            throw new IllegalStateException("Polynomial is already in coefficient domain");
         }
-        return new Polynomial(resultingCoeffs, q);
-    }
+        poly.setDomain(Polynomial.Domain.COEFFICIENT);
+        long begin = metrics.begin();
+        int[] coeffs = poly.getCoeffs();
+        int zetaIndex = zetasInvertedNegated.length - 1;
 
-    Polynomial convertFromNtt(Polynomial inputPoly) {
-        Polynomial poly = new Polynomial(inputPoly.getCoeffs(), q);
-        int zetaIndex = zetasInverted.size() - 1;
-
-        int numOfLayers = (int) (Math.log(n) / Math.log(2));
-        for (int layer = numOfLayers - 1; layer >= 0; layer--) {
-            int numOfSubpolys = (int) Math.pow(2, layer);
-            int lenOfSubpoly = n / numOfSubpolys;
-            for (int subpolyCounter = numOfSubpolys - 1; subpolyCounter >= 0; subpolyCounter--) {
-                int polyLstIndex = subpolyCounter * lenOfSubpoly + lenOfSubpoly;
-                for (int subpolyHalfIndex = polyLstIndex - 1; subpolyHalfIndex > polyLstIndex - 1 - lenOfSubpoly / 2; subpolyHalfIndex--) {
-                    int subpolyIndex = subpolyHalfIndex - lenOfSubpoly / 2;
-                    BigInteger oldSubpolyCoeff = poly.getCoeffIndex(subpolyIndex);
-                    BigInteger oldSubpolyHalfCoeff = poly.getCoeffIndex(subpolyHalfIndex);
-                    poly.setCoeffIndex(subpolyIndex, oldSubpolyCoeff.add(oldSubpolyHalfCoeff).mod(q));
-                    poly.setCoeffIndex(subpolyHalfIndex, zetasInverted.get(zetaIndex).negate().multiply(oldSubpolyCoeff.subtract(oldSubpolyHalfCoeff)).mod(q));
+        for (int lenOfSubpoly = 2; lenOfSubpoly <= n; lenOfSubpoly <<= 1) {
+            int halfLen = lenOfSubpoly >> 1;
+            for (int subpolyStart = n - lenOfSubpoly; subpolyStart >= 0; subpolyStart -= lenOfSubpoly) {
+                int zeta = zetasInvertedNegated[zetaIndex--];
+                if (vectorNtt != null && halfLen >= vectorNtt.length()) {
+                    vectorNtt.inverseButterflies(coeffs, subpolyStart, halfLen, zeta);
+                    continue;
+                }
+                for (int i = subpolyStart; i < subpolyStart + halfLen; i++) {
+                    int c = coeffs[i];
+                    int cHalf = coeffs[i + halfLen];
+                    coeffs[i] = montgomery.add(c, cHalf);
+                    coeffs[i + halfLen] = montgomery.multiplyMontgomery(montgomery.subtract(c, cHalf), zeta);
                 }
-                zetaIndex--;
             }
         }
 
-        BigInteger twoDivisor = BigInteger.TWO.modPow(BigInteger.valueOf(numOfLayers).negate(), q);
-        for (int i = 0; i < n; i = i + 1) {
-            poly.setCoeffIndex(i, poly.getCoeffIndex(i).multiply(twoDivisor).mod(q));
+        if (vectorNtt != null) {
+            vectorNtt.multiplyConstant(coeffs, twoDivisor);
+        } else {
+            for (int i = 0; i < n; i = i + 1) {
+                coeffs[i] = montgomery.multiplyMontgomery(coeffs[i], twoDivisor);
+            }
         }
-        return poly;
+        metrics.end(Metrics.Stage.NTT, begin);
     }
 }
@@ -0,0 +1,201 @@
+package protocol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Represents precomputed immutable tables needed by class Ntt for one pair (n, q).
+ * <p>
+ * Tables are computed at most once per process (see get) and shared by all instances of Ntt, so all sessions.
+ * Computation (NTT tree, factorization of q - 1, search for primitive root, modPow of all zetas) is done by
+ * class NttReference. To skip it also on cold start, tables can be saved to and loaded from a compact binary file:
+ * MAGIC, VERSION, n, q, zetas, negated inverted zetas, 2^(-log2(n)) and CRC32 of everything before it,
+ * all of them as big-endian ints. Values are stored in Montgomery form (see class Montgomery).
+ * </p>
+ */
+final class NttTables {
+
+    private static final int MAGIC = 0x4E545454;  // "NTTT"
+    private static final int VERSION = 1;
+    private static final int MAX_N = 1 << 20;  // protects against huge allocations when the file is corrupted
+
+    private record Key(int n, BigInteger q) {
+    }
+
+    private static final Map<Key, NttTables> CACHE = new ConcurrentHashMap<>();
+
+    private final int n;
+    private final BigInteger q;
+    private final Montgomery montgomery;
+    /**
+     * Zetas in Montgomery form in the order in which they are used by convertToNtt.
+     */
+    private final int[] zetas;
+    /**
+     * Negated inverted zetas in Montgomery form in the order in which they are used (backwards) by convertFromNtt.
+     */
+    private final int[] zetasInvertedNegated;
+    /**
+     * 2^(-log2(n)) in Montgomery form.
+     */
+    private final int twoDivisor;
+
+    private NttTables(int n, BigInteger q, int[] zetas, int[] zetasInvertedNegated, int twoDivisor) {
+        this.n = n;
+        this.q = q;
+        this.montgomery = new Montgomery(q);
+        this.zetas = zetas;
+        this.zetasInvertedNegated = zetasInvertedNegated;
+        this.twoDivisor = twoDivisor;
+    }
+
+    /**
+     * Returns tables for given n and q. They are computed only if they were neither computed nor loaded before.
+     */
+    static NttTables get(int n, BigInteger q) {
+        return CACHE.computeIfAbsent(new Key(n, q), key -> compute(key.n(), key.q()));
+    }
+
+    /**
+     * Loads tables from file if it exists, otherwise computes them and saves them into the file.
+     * A file which can not be loaded (truncated, corrupted, other version) is treated as missing: it is logged
+     * and overwritten. Either way, tables are then cached, so following calls of get do not do any number theory.
+     * @throws IOException only if the file can not be saved
+     */
+    static NttTables loadOrCompute(Path file, int n, BigInteger q) throws IOException {
+        if (Files.exists(file)) {
+            try {
+                NttTables loaded = load(file);
+                if (loaded.n == n && loaded.q.equals(q)) {
+                    return CACHE.computeIfAbsent(new Key(n, q), key -> loaded);
+                }
+            } catch (IOException e) {
+                System.err.println("[NttTables] Recomputing, can not load " + file + ": " + e);
+            }
+        }
+        NttTables tables = get(n, q);
+        tables.save(file);
+        return tables;
+    }
+
+    private static NttTables compute(int n, BigInteger q) {
+        Montgomery montgomery = new Montgomery(q);
+        NttReference reference = new NttReference(n, q);
+        List<BigInteger> zetasReference = reference.getZetas();
+        List<BigInteger> zetasInvertedReference = reference.getZetasInverted();
+        int[] zetas = new int[zetasReference.size()];
+        int[] zetasInvertedNegated = new int[zetasInvertedReference.size()];
+        for (int i = 0; i < zetas.length; i++) {
+            zetas[i] = montgomery.toMontgomery(zetasReference.get(i));
+            zetasInvertedNegated[i] = montgomery.toMontgomery(zetasInvertedReference.get(i).negate());
+        }
+        int numOfLayers = Integer.numberOfTrailingZeros(n);
+        int twoDivisor = montgomery.toMontgomery(BigInteger.TWO.modPow(BigInteger.valueOf(numOfLayers).negate(), q));
+        return new NttTables(n, q, zetas, zetasInvertedNegated, twoDivisor);
+    }
+
+    void save(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            CRC32 crc = new CRC32();
+            writeInt(out, crc, MAGIC);
+            writeInt(out, crc, VERSION);
+            writeInt(out, crc, n);
+            writeInt(out, crc, q.intValueExact());
+            for (int zeta : zetas) {
+                writeInt(out, crc, zeta);
+            }
+            for (int zeta : zetasInvertedNegated) {
+                writeInt(out, crc, zeta);
+            }
+            writeInt(out, crc, twoDivisor);
+            out.writeInt((int) crc.getValue());
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static NttTables load(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            CRC32 crc = new CRC32();
+            if (readInt(in, crc) != MAGIC || readInt(in, crc) != VERSION) {
+                throw new IOException("Not NTT tables file (or unsupported version): " + file);
+            }
+            int n = readInt(in, crc);
+            BigInteger q = BigInteger.valueOf(readInt(in, crc));
+            if (n < 2 || n > MAX_N || Integer.bitCount(n) != 1) {
+                throw new IOException("Corrupted NTT tables file, n = " + n + ": " + file);
+            }
+            int[] zetas = new int[n - 1];
+            int[] zetasInvertedNegated = new int[n - 1];
+            for (int i = 0; i < zetas.length; i++) {
+                zetas[i] = readInt(in, crc);
+            }
+            for (int i = 0; i < zetasInvertedNegated.length; i++) {
+                zetasInvertedNegated[i] = readInt(in, crc);
+            }
+            int twoDivisor = readInt(in, crc);
+            if (in.readInt() != (int) crc.getValue()) {
+                throw new IOException("Corrupted NTT tables file, checksum does not match: " + file);
+            }
+            return new NttTables(n, q, zetas, zetasInvertedNegated, twoDivisor);
+        }
+    }
+
+    private static void writeInt(DataOutputStream out, CRC32 crc, int value) throws IOException {
+        out.writeInt(value);
+        crc.update(value >>> 24);
+        crc.update(value >>> 16);
+        crc.update(value >>> 8);
+        crc.update(value);
+    }
+
+    private static int readInt(DataInputStream in, CRC32 crc) throws IOException {
+        int value = in.readInt();
+        crc.update(value >>> 24);
+        crc.update(value >>> 16);
+        crc.update(value >>> 8);
+        crc.update(value);
+        return value;
+    }
+
+    int getN() {
+        return n;
+    }
+
+    BigInteger getQ() {
+        return q;
+    }
+
+    Montgomery getMontgomery() {
+        return montgomery;
+    }
+
+    /**
+     * Shared array, must not be modified.
+     */
+    int[] getZetas() {
+        return zetas;
+    }
+
+    /**
+     * Shared array, must not be modified.
+     */
+    int[] getZetasInvertedNegated() {
+        return zetasInvertedNegated;
+    }
+
+    int getTwoDivisor() {
+        return twoDivisor;
+    }
+}
@@ -0,0 +1,93 @@
+package protocol;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ * Represents a polynomial whose coefficients live outside the GC heap, in a MemorySegment (a part of the slot
+ * which the session took from an OffHeapSlab).
+ * <p>
+ * It holds the state a session keeps between phases, while it waits for the client. Math is still done by Ntt
+ * on on-heap Polynomials of a pooled Workspace: store copies the result here, load copies it back for the next phase.
+ * Both are single bulk copies. Wire format is the same as in class Polynomial, and toBytes packs straight
+ * from the segment into (usually direct, pooled) ByteBuffer, which then goes to the SocketChannel.
+ * Slot goes back to the slab when the handshake ends, the polynomial must not be used afterwards.
+ * </p>
+ */
+final class OffHeapPolynomial implements BitPacking.Coefficients {
+
+    private static final ValueLayout.OfInt COEFFICIENT = ValueLayout.JAVA_INT;
+
+    private final MemorySegment coefficients;
+    private final int n;
+    private final int coeffBits;
+    private final int q;
+    private Polynomial.Domain domain = Polynomial.Domain.COEFFICIENT;
+
+    /**
+     * Uses the first byteSize(n) bytes of segment.
+     */
+    OffHeapPolynomial(MemorySegment segment, int n, BigInteger q) {
+        this.coefficients = segment.asSlice(0, byteSize(n));
+        this.n = n;
+        this.coeffBits = BitPacking.coeffBits(q);
+        this.q = q.intValueExact();
+    }
+
+    /**
+     * Overwrites all coefficients (and domain) by those of polynomial (which must have n coefficients).
+     */
+    void store(Polynomial polynomial) {
+        MemorySegment.copy(polynomial.getCoeffs(), 0, coefficients, COEFFICIENT, 0, n);
+        domain = polynomial.getDomain();
+    }
+
+    /**
+     * Overwrites all coefficients (and domain) of polynomial (which must have n coefficients) by these.
+     */
+    void load(Polynomial polynomial) {
+        MemorySegment.copy(coefficients, COEFFICIENT, 0, polynomial.getCoeffs(), 0, n);
+        polynomial.setDomain(domain);
+    }
+
+    static long byteSize(int n) {
+        return (long) n * Integer.BYTES;
+    }
+
+    Polynomial.Domain getDomain() {
+        return domain;
+    }
+
+    int packedByteSize() {
+        return BitPacking.packedByteSize(n, coeffBits);
+    }
+
+    @Override
+    public int getCoeffIndex(int i) {
+        return coefficients.getAtIndex(COEFFICIENT, i);
+    }
+
+    @Override
+    public void setCoeffIndex(int i, int val) {
+        coefficients.setAtIndex(COEFFICIENT, i, val);
+    }
+
+    /**
+     * Same as Polynomial.toBytes(ByteBuffer), but reads coefficients from the segment.
+     */
+    void toBytes(ByteBuffer out) {
+        BitPacking.pack(this, n, coeffBits, out);
+    }
+
+    /**
+     * Same as Polynomial.fromBytes(ByteBuffer), but writes coefficients into the segment.
+     * Domain of the received coefficients is given by the protocol.
+     * @throws IllegalArgumentException if some decoded coefficient is not smaller than q
+     */
+    void fromBytes(ByteBuffer in, Polynomial.Domain domain) {
+        this.domain = domain;
+        BitPacking.unpack(in, n, coeffBits, q, this);
+    }
+}
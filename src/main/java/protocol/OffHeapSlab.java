@@ -0,0 +1,57 @@
+package protocol;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Represents a slab of equally sized off-heap slots shared by all sessions of one parameter set.
+ * <p>
+ * Slots are carved from chunks of SLOTSPERCHUNK slots of one long-lived automatic Arena, and a released slot goes
+ * to a free list for the next session. So a handshake never creates or closes an arena of its own: closing
+ * a shared arena synchronizes with all threads of the JVM, which costs far more than the handshake math
+ * of a small session. Memory follows the peak number of sessions which hold off-heap state at once and is
+ * freed by the GC together with the slab. Slots hold secrets of their sessions (e.g. s1), so release zeroes a slot
+ * before it goes back to the free list, and the next session never sees them. All methods are thread-safe.
+ * </p>
+ */
+final class OffHeapSlab {
+
+    private static final int SLOTSPERCHUNK = 64;
+
+    private final long slotByteSize;
+    private final Arena arena = Arena.ofAuto();
+    private final Queue<MemorySegment> free = new ConcurrentLinkedQueue<>();
+
+    OffHeapSlab(long slotByteSize) {
+        this.slotByteSize = slotByteSize;
+    }
+
+    long slotByteSize() {
+        return slotByteSize;
+    }
+
+    /**
+     * Returns a free slot, a new chunk is allocated when there is none.
+     */
+    MemorySegment acquire() {
+        MemorySegment slot = free.poll();
+        if (slot != null) {
+            return slot;
+        }
+        MemorySegment chunk = arena.allocate(slotByteSize * SLOTSPERCHUNK, Long.BYTES);
+        for (int i = 1; i < SLOTSPERCHUNK; i++) {
+            free.offer(chunk.asSlice(i * slotByteSize, slotByteSize));
+        }
+        return chunk.asSlice(0, slotByteSize);
+    }
+
+    /**
+     * Zeroes the slot and gives it back, it must not be used afterwards.
+     */
+    void release(MemorySegment slot) {
+        slot.fill((byte) 0);
+        free.offer(slot);
+    }
+}
@@ -0,0 +1,261 @@
+package protocol;
+
+import java.util.Arrays;
+
+/**
+ * Represents SHAKE128 or SHAKE256 computed for several independent inputs at once.
+ * <p>
+ * Keccak-f[1600] states of all instances are interleaved in one long array: word i of instance l is stored
+ * at i * lanes + l. With 4 lanes (and module jdk.incubator.vector) class VectorKeccak permutes all of them at once,
+ * word i of all states being one vector, so 4 instances cost little more than one. Otherwise every lane is permuted
+ * by the fully unrolled scalar permutation (the same one as in Bouncy Castle KeccakDigest).
+ * All inputs of one call must have the same length, and so must all outputs.
+ * Output is the same as the output of Bouncy Castle SHAKEDigest (FIPS 202). Not thread-safe.
+ * SOURCE for Keccak-f[1600]: https://keccak.team/keccak_specs_summary.html
+ * </p>
+ */
+final class ParallelShake {
+
+    private static final int STATEWORDS = 25;
+    static final int ROUNDS = 24;
+    private static final byte SHAKEDOMAIN = 0x1F;
+    private static final String VECTOR_PROPERTY = "protocol.keccak.vector";
+    private static final boolean VECTOR_ENABLED = Boolean.parseBoolean(System.getProperty(VECTOR_PROPERTY, "true"))
+            && ModuleLayer.boot().findModule(VectorNtt.MODULE).isPresent();
+
+    static final long[] ROUND_CONSTANTS = {
+            0x0000000000000001L, 0x0000000000008082L, 0x800000000000808AL, 0x8000000080008000L,
+            0x000000000000808BL, 0x0000000080000001L, 0x8000000080008081L, 0x8000000000008009L,
+            0x000000000000008AL, 0x0000000000000088L, 0x0000000080008009L, 0x000000008000000AL,
+            0x000000008000808BL, 0x800000000000008BL, 0x8000000000008089L, 0x8000000000008003L,
+            0x8000000000008002L, 0x8000000000000080L, 0x000000000000800AL, 0x800000008000000AL,
+            0x8000000080008081L, 0x8000000000008080L, 0x0000000080000001L, 0x8000000080008008L
+    };
+    /**
+     * Number of lanes of VectorKeccak, the scalar code does not care.
+     */
+    static final int DEFAULTLANES = 4;
+
+    private final int lanes;
+    /**
+     * Number of bytes absorbed or squeezed per permutation.
+     */
+    private final int rate;
+    private final long[] state;
+    /**
+     * True if all lanes are permuted at once by class VectorKeccak.
+     */
+    private final boolean vectorKeccak;
+
+    private ParallelShake(int securityBits, int lanes) {
+        this.lanes = lanes;
+        this.rate = 200 - securityBits / 4;
+        this.state = new long[STATEWORDS * lanes];
+        this.vectorKeccak = VECTOR_ENABLED && lanes == VectorKeccak.LANES && VectorKeccak.isSupported();
+    }
+
+    static ParallelShake shake128(int lanes) {
+        return new ParallelShake(128, lanes);
+    }
+
+    static ParallelShake shake256(int lanes) {
+        return new ParallelShake(256, lanes);
+    }
+
+    int lanes() {
+        return lanes;
+    }
+
+    /**
+     * outputs[i] = SHAKE(first inLen bytes of inputs[i]) for first <= i < first + count, where count is at most lanes().
+     * Only first outLen bytes of every output are written. Unused lanes are computed on nothing and thrown away.
+     * Does not allocate anything.
+     */
+    void digest(byte[][] inputs, int inLen, byte[][] outputs, int outLen, int first, int count) {
+        if (count > lanes) {
+            throw new IllegalArgumentException("At most " + lanes + " instances, got " + count);
+        }
+        Arrays.fill(state, 0);
+        // absorb
+        int offset = 0;
+        while (inLen - offset >= rate) {
+            for (int l = 0; l < count; l++) {
+                xorBytes(inputs[first + l], offset, l, rate);
+            }
+            permute();
+            offset += rate;
+        }
+        for (int l = 0; l < count; l++) {
+            xorBytes(inputs[first + l], offset, l, inLen - offset);
+            xorByte(l, inLen - offset, SHAKEDOMAIN);
+            xorByte(l, rate - 1, (byte) 0x80);
+        }
+        permute();
+        // squeeze
+        offset = 0;
+        while (true) {
+            int len = Math.min(rate, outLen - offset);
+            for (int l = 0; l < count; l++) {
+                extractBytes(outputs[first + l], offset, l, len);
+            }
+            offset += len;
+            if (offset == outLen) {
+                return;
+            }
+            permute();
+        }
+    }
+
+    private void xorByte(int lane, int position, byte value) {
+        state[(position >>> 3) * lanes + lane] ^= (value & 0xFFL) << ((position & 7) << 3);
+    }
+
+    private void xorBytes(byte[] in, int inOff, int lane, int len) {
+        int word = 0;
+        for (; word < len >>> 3; word++) {
+            long value = 0;
+            for (int i = 7; i >= 0; i--) {
+                value = (value << 8) | (in[inOff + 8 * word + i] & 0xFFL);
+            }
+            state[word * lanes + lane] ^= value;
+        }
+        for (int i = word << 3; i < len; i++) {
+            xorByte(lane, i, in[inOff + i]);
+        }
+    }
+
+    private void extractBytes(byte[] out, int outOff, int lane, int len) {
+        for (int i = 0; i < len; i++) {
+            out[outOff + i] = (byte) (state[(i >>> 3) * lanes + lane] >>> ((i & 7) << 3));
+        }
+    }
+
+    private void permute() {
+        if (vectorKeccak) {
+            VectorKeccak.permute(state);
+            return;
+        }
+        for (int lane = 0; lane < lanes; lane++) {
+            permute(state, lane, lanes);
+        }
+    }
+
+    /**
+     * Keccak-f[1600] of one instance of interleaved states. Fully unrolled, so all 25 words stay in registers.
+     */
+    static void permute(long[] state, int lane, int lanes) {
+        long a00 = state[0 * lanes + lane];
+        long a01 = state[1 * lanes + lane];
+        long a02 = state[2 * lanes + lane];
+        long a03 = state[3 * lanes + lane];
+        long a04 = state[4 * lanes + lane];
+        long a05 = state[5 * lanes + lane];
+        long a06 = state[6 * lanes + lane];
+        long a07 = state[7 * lanes + lane];
+        long a08 = state[8 * lanes + lane];
+        long a09 = state[9 * lanes + lane];
+        long a10 = state[10 * lanes + lane];
+        long a11 = state[11 * lanes + lane];
+        long a12 = state[12 * lanes + lane];
+        long a13 = state[13 * lanes + lane];
+        long a14 = state[14 * lanes + lane];
+        long a15 = state[15 * lanes + lane];
+        long a16 = state[16 * lanes + lane];
+        long a17 = state[17 * lanes + lane];
+        long a18 = state[18 * lanes + lane];
+        long a19 = state[19 * lanes + lane];
+        long a20 = state[20 * lanes + lane];
+        long a21 = state[21 * lanes + lane];
+        long a22 = state[22 * lanes + lane];
+        long a23 = state[23 * lanes + lane];
+        long a24 = state[24 * lanes + lane];
+        for (int round = 0; round < ROUNDS; round++) {
+            long c0 = a00 ^ a05 ^ a10 ^ a15 ^ a20;
+            long c1 = a01 ^ a06 ^ a11 ^ a16 ^ a21;
+            long c2 = a02 ^ a07 ^ a12 ^ a17 ^ a22;
+            long c3 = a03 ^ a08 ^ a13 ^ a18 ^ a23;
+            long c4 = a04 ^ a09 ^ a14 ^ a19 ^ a24;
+            long d0 = c4 ^ Long.rotateLeft(c1, 1);
+            long d1 = c0 ^ Long.rotateLeft(c2, 1);
+            long d2 = c1 ^ Long.rotateLeft(c3, 1);
+            long d3 = c2 ^ Long.rotateLeft(c4, 1);
+            long d4 = c3 ^ Long.rotateLeft(c0, 1);
+            long b00 = a00 ^ d0;
+            long b01 = Long.rotateLeft(a06 ^ d1, 44);
+            long b02 = Long.rotateLeft(a12 ^ d2, 43);
+            long b03 = Long.rotateLeft(a18 ^ d3, 21);
+            long b04 = Long.rotateLeft(a24 ^ d4, 14);
+            long b05 = Long.rotateLeft(a03 ^ d3, 28);
+            long b06 = Long.rotateLeft(a09 ^ d4, 20);
+            long b07 = Long.rotateLeft(a10 ^ d0, 3);
+            long b08 = Long.rotateLeft(a16 ^ d1, 45);
+            long b09 = Long.rotateLeft(a22 ^ d2, 61);
+            long b10 = Long.rotateLeft(a01 ^ d1, 1);
+            long b11 = Long.rotateLeft(a07 ^ d2, 6);
+            long b12 = Long.rotateLeft(a13 ^ d3, 25);
+            long b13 = Long.rotateLeft(a19 ^ d4, 8);
+            long b14 = Long.rotateLeft(a20 ^ d0, 18);
+            long b15 = Long.rotateLeft(a04 ^ d4, 27);
+            long b16 = Long.rotateLeft(a05 ^ d0, 36);
+            long b17 = Long.rotateLeft(a11 ^ d1, 10);
+            long b18 = Long.rotateLeft(a17 ^ d2, 15);
+            long b19 = Long.rotateLeft(a23 ^ d3, 56);
+            long b20 = Long.rotateLeft(a02 ^ d2, 62);
+            long b21 = Long.rotateLeft(a08 ^ d3, 55);
+            long b22 = Long.rotateLeft(a14 ^ d4, 39);
+            long b23 = Long.rotateLeft(a15 ^ d0, 41);
+            long b24 = Long.rotateLeft(a21 ^ d1, 2);
+            a00 = b00 ^ (~b01 & b02);
+            a01 = b01 ^ (~b02 & b03);
+            a02 = b02 ^ (~b03 & b04);
+            a03 = b03 ^ (~b04 & b00);
+            a04 = b04 ^ (~b00 & b01);
+            a05 = b05 ^ (~b06 & b07);
+            a06 = b06 ^ (~b07 & b08);
+            a07 = b07 ^ (~b08 & b09);
+            a08 = b08 ^ (~b09 & b05);
+            a09 = b09 ^ (~b05 & b06);
+            a10 = b10 ^ (~b11 & b12);
+            a11 = b11 ^ (~b12 & b13);
+            a12 = b12 ^ (~b13 & b14);
+            a13 = b13 ^ (~b14 & b10);
+            a14 = b14 ^ (~b10 & b11);
+            a15 = b15 ^ (~b16 & b17);
+            a16 = b16 ^ (~b17 & b18);
+            a17 = b17 ^ (~b18 & b19);
+            a18 = b18 ^ (~b19 & b15);
+            a19 = b19 ^ (~b15 & b16);
+            a20 = b20 ^ (~b21 & b22);
+            a21 = b21 ^ (~b22 & b23);
+            a22 = b22 ^ (~b23 & b24);
+            a23 = b23 ^ (~b24 & b20);
+            a24 = b24 ^ (~b20 & b21);
+            a00 ^= ROUND_CONSTANTS[round];
+        }
+        state[0 * lanes + lane] = a00;
+        state[1 * lanes + lane] = a01;
+        state[2 * lanes + lane] = a02;
+        state[3 * lanes + lane] = a03;
+        state[4 * lanes + lane] = a04;
+        state[5 * lanes + lane] = a05;
+        state[6 * lanes + lane] = a06;
+        state[7 * lanes + lane] = a07;
+        state[8 * lanes + lane] = a08;
+        state[9 * lanes + lane] = a09;
+        state[10 * lanes + lane] = a10;
+        state[11 * lanes + lane] = a11;
+        state[12 * lanes + lane] = a12;
+        state[13 * lanes + lane] = a13;
+        state[14 * lanes + lane] = a14;
+        state[15 * lanes + lane] = a15;
+        state[16 * lanes + lane] = a16;
+        state[17 * lanes + lane] = a17;
+        state[18 * lanes + lane] = a18;
+        state[19 * lanes + lane] = a19;
+        state[20 * lanes + lane] = a20;
+        state[21 * lanes + lane] = a21;
+        state[22 * lanes + lane] = a22;
+        state[23 * lanes + lane] = a23;
+        state[24 * lanes + lane] = a24;
+    }
+}
@@ -0,0 +1,85 @@
+package protocol;
+
+import java.math.BigInteger;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Represents the registry of named parameter sets, a client picks one by the first byte of its first message.
+ * <p>
+ * n - polynomial size - must be power of 2 and fit into int data type
+ * q - defines Z_q for coefficients in the polynomials - must be prime, must be congruent with 1 modulo 2 * n
+ * eta - defines Central binomial distribution when generating error polynomials.
+ * All sets share q = 1073479681: q - 1 = 2^18 * 3^2 * 5 * 7 * 13, so it is NTT-friendly for every power of two
+ * n up to 2^17, and uniform sampling of class Mlkem draws 30-bit candidates, so q must stay just below 2^30.
+ * N1024 is the default. N512 halves messages and math for latency-sensitive tenants (with wider noise),
+ * N2048 is for high-security tenants. One server process serves all of them, see class ParameterSuite.
+ * id goes over the wire and names of sets are part of file names (see file), both must never change.
+ * </p>
+ */
+enum ParameterSet {
+    N512(1, 512, 1073479681, 4),
+    N1024(2, 1024, 1073479681, 3),
+    N2048(3, 2048, 1073479681, 3);
+
+    static final ParameterSet DEFAULT = N1024;
+    static final int IDBYTESIZE = 1;
+
+    private final byte id;
+    private final int n;
+    private final BigInteger q;
+    private final int eta;
+
+    ParameterSet(int id, int n, long q, int eta) {
+        this.id = (byte) id;
+        this.n = n;
+        this.q = BigInteger.valueOf(q);
+        this.eta = eta;
+    }
+
+    byte id() {
+        return id;
+    }
+
+    int n() {
+        return n;
+    }
+
+    BigInteger q() {
+        return q;
+    }
+
+    int eta() {
+        return eta;
+    }
+
+    /**
+     * @throws IllegalArgumentException if no set has this id
+     */
+    static ParameterSet byId(byte id) {
+        for (ParameterSet set : values()) {
+            if (set.id == id) {
+                return set;
+            }
+        }
+        throw new IllegalArgumentException("Unknown parameter set " + id);
+    }
+
+    /**
+     * Accepts names in any case, e.g. n512.
+     */
+    static ParameterSet parse(String name) {
+        return ParameterSet.valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * File of this set next to defaultFile: defaultFile itself for DEFAULT (as before there were more sets),
+     * otherwise its name with suffix, e.g. verifiers-n512.
+     */
+    Path file(Path defaultFile) {
+        if (this == DEFAULT) {
+            return defaultFile;
+        }
+        return defaultFile.resolveSibling(defaultFile.getFileName() + "-" + name().toLowerCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,68 @@
+package protocol;
+
+import java.util.Locale;
+import java.util.function.Supplier;
+
+/**
+ * Represents everything the server prepares for one parameter set: NTT tables (through Ntt), samplers of Mlkem,
+ * cache of uniform polynomials, background pool of ephemeral secrets, pool of workspaces, slab of off-heap session
+ * state and the verifier store.
+ * <p>
+ * All of them are sized by n and q of the set, so sets never share them; a verifier registered under one set
+ * can be used only by handshakes of that set. All of them are thread-safe and shared by all sessions of the set,
+ * every session gets its own Protocol from newProtocol. Counters of the cache and the pool are reported
+ * in Metrics.dump while the suite is open.
+ * </p>
+ */
+final class ParameterSuite implements AutoCloseable {
+
+    private static final long UNIFORM_POLYNOMIALS_CACHE_BYTES = 64L << 20;
+    private static final int EPHEMERAL_LOW_WATERMARK = 64;
+    private static final int EPHEMERAL_HIGH_WATERMARK = 256;
+    private static final int IDLE_WORKSPACES_PER_CORE = 2;
+
+    private final ParameterSet set;
+    private final Ntt ntt;
+    private final Mlkem mlkem;
+    private final VerifierStore verifiers;
+    private final UniformPolynomialCache uniformPolynomials;
+    private final EphemeralPool ephemerals;
+    private final WorkspacePool workspaces;
+    private final OffHeapSlab offHeapStates;
+    private final Supplier<String> report = this::report;
+
+    ParameterSuite(ParameterSet set, VerifierStore verifiers) {
+        int n = set.n();
+        this.set = set;
+        this.ntt = new Ntt(n, set.q());
+        this.mlkem = new Mlkem(n, set.q());
+        this.verifiers = verifiers;
+        this.uniformPolynomials = new UniformPolynomialCache(n, set.q(), UNIFORM_POLYNOMIALS_CACHE_BYTES);
+        int producers = Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+        this.ephemerals = new EphemeralPool(n, set.q(), set.eta(), producers, EPHEMERAL_LOW_WATERMARK, EPHEMERAL_HIGH_WATERMARK);
+        this.workspaces = new WorkspacePool(n, set.q(), set.eta(), IDLE_WORKSPACES_PER_CORE * Runtime.getRuntime().availableProcessors());
+        this.offHeapStates = new OffHeapSlab(Protocol.offHeapStateByteSize(n));
+        Metrics.shared().addReport(report);
+    }
+
+    Protocol newProtocol() {
+        return new Protocol(set, ntt, mlkem, verifiers, uniformPolynomials, ephemerals, workspaces, offHeapStates);
+    }
+
+    private String report() {
+        return String.format(Locale.ROOT, "%s uniform a cached=%d hits=%d misses=%d evictions=%d,"
+                        + " ephemerals depth=%d hits=%d misses=%d produced=%d", set,
+                uniformPolynomials.size(), uniformPolynomials.getHits(), uniformPolynomials.getMisses(),
+                uniformPolynomials.getEvictions(), ephemerals.depth(), ephemerals.getHits(), ephemerals.getMisses(),
+                ephemerals.getProduced());
+    }
+
+    /**
+     * Stops background producers and reporting, the verifier store is closed by its owner.
+     */
+    @Override
+    public void close() {
+        Metrics.shared().removeReport(report);
+        ephemerals.close();
+    }
+}
@@ -7,52 +7,121 @@ import java.nio.ByteBuffer;
  * Represents a polynomial modulo (X^N + 1) with all coefficients modulo Q.
  * <p>
  * These polynomials are basic building blocks in the protocol.
+ * Coefficients are stored as primitive ints in [0, Q), so Q must be smaller than 2^30 (see class Montgomery).
+ * On the wire, coefficients are tightly bit-packed by class BitPacking (30 bits each for our Q).
+ * </p>
+ * <p>
+ * Every polynomial knows whether its coefficients are in coefficient or NTT form (its domain). In-place transforms
+ * of class Ntt switch it, operations of Ntt and Magic check it (see there). Domain is not sent on the wire,
+ * the receiver knows it from the protocol.
  * </p>
  */
-class Polynomial {
+class Polynomial implements BitPacking.Coefficients {
+
+    enum Domain {
+        COEFFICIENT,
+        NTT
+    }
 
     /**
      * From the lowest to highest position in array, constant to X^(N-1) coefficients are stored.
      */
-    private final BigInteger[] coefficients;
+    private final int[] coefficients;
     /**
-     * For communication with the client we want to know how many bytes do we need to store each coefficient.
+     * For communication with the client we want to know how many bits do we need to store each coefficient.
      */
-    private final int coeffBytes;
+    private final int coeffBits;
+    private final int q;
+    private Domain domain;
 
-    Polynomial(BigInteger[] coefficients, BigInteger q) {
+    Polynomial(int[] coefficients, BigInteger q) {
+        this(coefficients, q, Domain.COEFFICIENT);
+    }
+
+    Polynomial(int[] coefficients, BigInteger q, Domain domain) {
         this.coefficients = coefficients;
-        this.coeffBytes = (int) ((q.subtract(BigInteger.ONE).bitLength() + 1 + 7) / 8);  // + 1 because of the sign bit
-        // ^^ ceiling
+        this.coeffBits = BitPacking.coeffBits(q);
+        this.q = q.intValue();
+        this.domain = domain;
     }
 
-    void setCoeffIndex(int i, BigInteger val)
+    /**
+     * Number of bytes of a bit-packed polynomial with n coefficients modulo q.
+     */
+    static int packedByteSize(int n, BigInteger q) {
+        return BitPacking.packedByteSize(n, BitPacking.coeffBits(q));
+    }
+
+    @Override
+    public void setCoeffIndex(int i, int val)
     {
         this.coefficients[i] = val;
     }
 
-    BigInteger getCoeffIndex(int i)
+    @Override
+    public int getCoeffIndex(int i)
     {
         return this.coefficients[i];
     }
 
-    BigInteger[] getCoeffs()
+    int[] getCoeffs()
     {
         return this.coefficients;
     }
 
+    Domain getDomain() {
+        return domain;
+    }
+
+    /**
+     * Only records the form of the current coefficients, it does not transform them.
+     */
+    void setDomain(Domain domain) {
+        this.domain = domain;
+    }
+
+    /**
+     * Converts coefficients into BigIntegers, so they can be cross-checked with class NttReference.
+     */
+    BigInteger[] toBigIntegers() {
+        BigInteger[] result = new BigInteger[coefficients.length];
+        for (int i = 0; i < coefficients.length; i++) {
+            result[i] = BigInteger.valueOf(coefficients[i]);
+        }
+        return result;
+    }
+
+    int packedByteSize() {
+        return BitPacking.packedByteSize(coefficients.length, coeffBits);
+    }
+
     // Serialize Polynomial → Byte[]
     public byte[] toBytes() {
-        int coeffSize = coefficients.length * coeffBytes;
-        // Allocate buffer for all coefficients
-        ByteBuffer buffer = ByteBuffer.allocate(coeffSize);
-        // Write each coefficient
-        for (BigInteger coeff : coefficients) {
-            byte[] raw = coeff.toByteArray();
-            byte[] fixed = new byte[coeffSize];  // filled by zeros by default
-            System.arraycopy(raw, 0, fixed, coeffSize - raw.length, raw.length);
-            buffer.put(fixed);
-        }
+        ByteBuffer buffer = ByteBuffer.allocate(packedByteSize());
+        toBytes(buffer);
         return buffer.array();
     }
+
+    /**
+     * Writes packedByteSize() bytes into out (from its current position). Does not allocate anything.
+     */
+    void toBytes(ByteBuffer out) {
+        BitPacking.pack(this, coefficients.length, coeffBits, out);
+    }
+
+    /**
+     * Overwrites all coefficients by packedByteSize() bytes read from in (from its current position), domain stays.
+     * Does not allocate anything.
+     * @throws IllegalArgumentException if some decoded coefficient is not smaller than q
+     */
+    void fromBytes(ByteBuffer in) {
+        BitPacking.unpack(in, coefficients.length, coeffBits, q, this);
+    }
+
+    // Deserialize Byte[] → Polynomial
+    static Polynomial fromBytes(ByteBuffer in, int n, BigInteger q, Domain domain) {
+        Polynomial polynomial = new Polynomial(new int[n], q, domain);
+        polynomial.fromBytes(in);
+        return polynomial;
+    }
 }
@@ -1,21 +1,30 @@
 package protocol;
 
 import java.io.IOException;
+import java.lang.foreign.MemorySegment;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
-import java.nio.channels.SocketChannel;
-import java.nio.charset.StandardCharsets;
 
 /**
  * Represents the whole protocol from the article.
  * <p>
+ * One Protocol serves one session. State which the session keeps between phases (s1 and pi) lives off the GC heap
+ * in a slot of a shared OffHeapSlab, taken only when phase1 first needs it, so sessions which never get there
+ * (failed handshakes) hold no off-heap memory. Scratch memory of the math is borrowed
+ * from a WorkspacePool only while a phase runs. close gives the slot back, it must be called when the handshake ends.
+ * Messages of the session are hashed into its Transcript as they are read and written (by FramedChannel),
+ * keys and confirmation tags are derived from it, so the session does not keep the messages themselves.
  * Source for the protocol: https://eprint.iacr.org/2017/1196.pdf
  * </p>
  */
-class Protocol {
-    private static final int IDENTITYBYTESIZE = 11;  // all characters are ASCII, so 1 char per byte // that size is just made up
-    private static final int PUBLICSEEDBYTESIZE = 34;
-    private static final int SALTBYTESIZE = 11;  // that size is just made up
+class Protocol implements AutoCloseable {
+    static final int IDENTITYBYTESIZE = 11;  // all characters are ASCII, so 1 char per byte // that size is just made up
+    /**
+     * Same for all parameter sets: the seed is only absorbed by the XOF which expands a (see Mlkem), so its size
+     * does not depend on n or q. 34 random bytes (like rho || i || j of ML-KEM) are over 256 bits, enough for every set.
+     */
+    static final int PUBLICSEEDBYTESIZE = 34;
+    static final int SALTBYTESIZE = 11;  // that size is just made up
     private final int coeffsByteSize;
     private final int n;
     private final BigInteger q;
@@ -23,85 +32,193 @@ class Protocol {
     private final Engine engine;
     private final Ntt ntt;
     private final Mlkem mlkem;
+    private final WorkspacePool workspaces;
+    private final VerifierStore verifiers;
+    private final UniformPolynomialCache uniformPolynomials;
+    private final EphemeralPool ephemerals;
+    private final Metrics metrics;
+    private final OffHeapSlab slab;
+    /**
+     * Slot of the slab and polynomials in it, null until phase1 (and after close). Guarded by this,
+     * since a Selector session runs its phases on worker threads and is closed by the event loop.
+     */
+    private MemorySegment offHeapState;
+    private OffHeapPolynomial s1Ntt;
+    private OffHeapPolynomial piNtt;
+    private boolean closed;
+    private final Transcript transcript = new Transcript();
 
-    Protocol(int n, BigInteger q, int eta) {
+    /**
+     * Protocol with its own cache, workspace and slab and without any background producers,
+     * so all ephemeral secrets are generated inline.
+     */
+    Protocol(int n, BigInteger q, int eta, VerifierStore verifiers, long uniformPolynomialsBytes) {
+        this(n, q, eta, new Ntt(n, q), new Mlkem(n, q), verifiers, new UniformPolynomialCache(n, q, uniformPolynomialsBytes),
+                new EphemeralPool(n, q, eta, 0, 0, 0), new WorkspacePool(n, q, eta, 1),
+                new OffHeapSlab(offHeapStateByteSize(n)));
+    }
+
+    /**
+     * Ntt, Mlkem, VerifierStore, UniformPolynomialCache, EphemeralPool, WorkspacePool and OffHeapSlab (with slots
+     * of offHeapStateByteSize(n) bytes) are thread-safe, so they can be shared by all protocols
+     * (connections). Engine has mutable digest state, so every protocol owns its own one.
+     */
+    Protocol(ParameterSet set, Ntt ntt, Mlkem mlkem, VerifierStore verifiers,
+             UniformPolynomialCache uniformPolynomials, EphemeralPool ephemerals, WorkspacePool workspaces,
+             OffHeapSlab slab) {
+        this(set.n(), set.q(), set.eta(), ntt, mlkem, verifiers, uniformPolynomials, ephemerals, workspaces, slab);
+    }
+
+    private Protocol(int n, BigInteger q, int eta, Ntt ntt, Mlkem mlkem, VerifierStore verifiers,
+                     UniformPolynomialCache uniformPolynomials, EphemeralPool ephemerals, WorkspacePool workspaces,
+                     OffHeapSlab slab) {
         this.n = n;
         this.q = q;
         this.eta = eta;
         this.engine = new Engine();
-        this.ntt = new Ntt(this.n, this.q);
-        this.mlkem = new Mlkem(this.n, this.q);
-        this.coeffsByteSize = n * (int) ((q.subtract(BigInteger.ONE).bitLength() + 1 + 7) / 8);  // + 1 because of the sign bit
-        // ^^ ceiling
+        this.ntt = ntt;
+        this.mlkem = mlkem;
+        this.workspaces = workspaces;
+        this.verifiers = verifiers;
+        this.uniformPolynomials = uniformPolynomials;
+        this.ephemerals = ephemerals;
+        this.coeffsByteSize = Polynomial.packedByteSize(n, q);
+        this.metrics = Metrics.shared();
+        this.slab = slab;
+        if (slab.slotByteSize() < offHeapStateByteSize(n)) {
+            throw new IllegalArgumentException("Slots of the slab are too small for n = " + n);
+        }
     }
 
-    private void getEtaNoise(Polynomial r, byte[] seed) {
-        byte[] buf = new byte[n * eta / 4];
-        engine.prf(buf, seed);
-        mlkem.generateCbdPolynomial(r, buf, eta);
+    /**
+     * Bytes of off-heap state of one session: s1 and pi.
+     */
+    static long offHeapStateByteSize(int n) {
+        return 2 * OffHeapPolynomial.byteSize(n);
     }
 
-    private ByteBuffer readMessage(SocketChannel channel, int size) {
-        try {
-            ByteBuffer buffer = ByteBuffer.allocate(size);
-            int bytesRead = channel.read(buffer);
-            if (bytesRead < 0) return null;
-
-            return buffer;
-        } catch (IOException e) {
-            // TODO do something
-            return ByteBuffer.allocate(0);
+    /**
+     * Takes a slot of the slab for s1 and pi, unless the session already has it.
+     */
+    private synchronized void acquireOffHeapState() {
+        if (closed) {
+            throw new IllegalStateException("Protocol is closed");
+        }
+        if (offHeapState != null) {
+            return;
         }
+        offHeapState = slab.acquire();
+        s1Ntt = new OffHeapPolynomial(offHeapState, n, q);
+        piNtt = new OffHeapPolynomial(offHeapState.asSlice(OffHeapPolynomial.byteSize(n)), n, q);
+    }
+
+    Transcript getTranscript() {
+        return transcript;
     }
 
-    void phase0(SocketChannel channel) {
+    int phase0MessageSize() {
+        return PUBLICSEEDBYTESIZE + IDENTITYBYTESIZE + SALTBYTESIZE + coeffsByteSize;
+    }
+
+    /**
+     * Processes already received message (payload of a frame, see FramedChannel) of phase0
+     * and registers the client in the verifier store.
+     * @throws IllegalArgumentException if the message does not contain exactly phase0MessageSize() bytes
+     * @throws IOException if the registration can not be stored
+     */
+    void phase0(ByteBuffer msgFromClient) throws IOException {
+        long begin = metrics.begin();
+        long allocationBegin = metrics.beginAllocation();
+        if (msgFromClient.remaining() != phase0MessageSize()) {
+            throw new IllegalArgumentException("Phase0 message must have " + phase0MessageSize() + " bytes, got " + msgFromClient.remaining());
+        }
         // Save a, I, salt and v from the client //
-        int totalLen = PUBLICSEEDBYTESIZE + IDENTITYBYTESIZE + SALTBYTESIZE + coeffsByteSize;
-        ByteBuffer msgFromClient = readMessage(channel, totalLen);
-        assert msgFromClient.capacity() == totalLen;
         // Extract publicSeed
         byte[] publicSeed = new byte[PUBLICSEEDBYTESIZE];
         msgFromClient.get(publicSeed);
         // Extract identity
         byte[] identityBytes = new byte[IDENTITYBYTESIZE];
         msgFromClient.get(identityBytes);
-        String identity = new String(identityBytes, StandardCharsets.UTF_8);
         // Extract salt
         byte[] salt = new byte[SALTBYTESIZE];
         msgFromClient.get(salt);
         // Extract polynomial
-        byte[] vBytes = new byte[coeffsByteSize];
-        msgFromClient.get(vBytes);
-        // Polynomial vNtt = Polynomial.fromBytes(vBytes, coeffsByteSize / vNttLength);  TODO
+        Polynomial vNtt = Polynomial.fromBytes(msgFromClient, n, q, Polynomial.Domain.NTT);
+        // Store them, later handshakes of this identity take them from the store
+        verifiers.register(identityBytes, publicSeed, salt, vNtt);
+        metrics.endAllocation(Metrics.Stage.PHASE0, allocationBegin);
+        metrics.end(Metrics.Stage.PHASE0, begin);
     }
 
-    // TODO add sending and receiving to and from server
-    void phase1(byte[] publicSeed) {
-        Polynomial constantTwoPolyNtt = ntt.generateConstantTwoPolynomialNtt();
-        // pi = as1 + 2e1 //
-        // Compute a.
-        Polynomial aNtt = new Polynomial(new BigInteger[n], q);
-        mlkem.generateUniformPolynomialNtt(engine, aNtt, publicSeed);
-        // Compute s1.
-        Polynomial s1 = new Polynomial(new BigInteger[n], q);
-        byte[] s1RandomSeed = new byte[34];
-        engine.getRandomBytes(s1RandomSeed);
-        getEtaNoise(s1, s1RandomSeed);
-        Polynomial s1Ntt = ntt.convertToNtt(s1);
-        // Compute e1.
-        Polynomial e1 = new Polynomial(new BigInteger[n], q);
-        byte[] e1RandomSeed = new byte[34];
-        engine.getRandomBytes(e1RandomSeed);
-        getEtaNoise(e1, e1RandomSeed);
-        Polynomial e1Ntt = ntt.convertFromNtt(e1);
-        // Do all the math
-        Polynomial aS1Ntt = ntt.multiplyNttPolys(aNtt, s1Ntt);
-        Polynomial twoE1Ntt = ntt.multiplyNttPolys(constantTwoPolyNtt, e1Ntt);
-        Polynomial piNtt = ntt.add(aS1Ntt, twoE1Ntt);
+    /**
+     * Encodes polynomial straight from its segment into a pooled payload and queues it as one frame.
+     * Caller decides when to flush.
+     */
+    private static void queuePolynomial(FramedChannel framed, OffHeapPolynomial polynomial) {
+        ByteBuffer payload = framed.allocatePayload(polynomial.packedByteSize());
+        polynomial.toBytes(payload);
+        framed.queueFrame(payload.flip());
+    }
 
+    // TODO add receiving from the client
+    /**
+     * Works only with polynomials and buffers of a pooled workspace (a is copied into it from the cache) and with pooled
+     * s1 and e1, so it allocates only the cache key (and the cached copy of a, when its seed is not cached). s1 and pi are kept off-heap
+     * for the next phase, resulting pi is queued into framed as one frame.
+     */
+    void phase1(byte[] publicSeed, FramedChannel framed) {
+        long begin = metrics.begin();
+        long allocationBegin = metrics.beginAllocation();
+        acquireOffHeapState();
+        Workspace workspace = workspaces.acquire(engine);
+        try {
+            // pi = as1 + 2e1 //
+            // Compute a (or copy it from the cache).
+            Polynomial aNtt = workspace.aNtt;
+            uniformPolynomials.get(engine, publicSeed, workspace.xofBuffer, aNtt);
+            // Take s1 and e1 prepared in the background, or compute them now if there are none.
+            EphemeralPool.Ephemeral ephemeral = ephemerals.poll();
+            if (ephemeral == null) {
+                ephemeral = workspace.ephemeral;
+                ephemerals.generate(engine, workspace.noiseSeeds, workspace.noiseBuffers, ephemeral, null);
+            }
+            Polynomial e1Ntt = ephemeral.e1Ntt();
+            // Do all the math
+            ntt.multiplyAddScaled(workspace.piNtt, aNtt, ephemeral.s1Ntt(), 2, e1Ntt);
+            // Keep what the session needs later
+            s1Ntt.store(ephemeral.s1Ntt());
+            piNtt.store(workspace.piNtt);
+            ephemeral.clear();  // s1 lives on only off-heap
+        } finally {
+            workspaces.release(workspace);
+        }
+        queuePolynomial(framed, piNtt);
+        metrics.endAllocation(Metrics.Stage.PHASE1, allocationBegin);
+        metrics.end(Metrics.Stage.PHASE1, begin);
     }
 
     // TODO
     void phase2() {
+        long begin = metrics.begin();
+        metrics.end(Metrics.Stage.PHASE2, begin);
+    }
+
+    /**
+     * Gives the off-heap state of the session back to the slab. Calling it again (from any thread) does nothing.
+     */
+    @Override
+    public void close() {
+        MemorySegment released;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            released = offHeapState;
+            offHeapState = null;
+        }
+        if (released != null) {
+            slab.release(released);
+        }
     }
 }
@@ -0,0 +1,166 @@
+package protocol;
+
+import org.bouncycastle.crypto.digests.SHAKEDigest;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Represents scalable source of cryptographically secure random bytes shared by all sessions.
+ * <p>
+ * Consists of several independent generators (stripes); a thread always uses the stripe given by its id,
+ * so worker threads practically never share a generator and virtual threads do not need their own (seeding
+ * one per session would cost more than the handshake). Stripes are guarded by ReentrantLock, which, unlike
+ * synchronized, does not pin a virtual thread to its carrier.
+ * <p>
+ * Each generator is a DRBG built on SHAKE256: output = SHAKE256(key || counter), whose first KEYBYTESIZE bytes
+ * replace the key (so a leaked state does not reveal previous output) and the rest fills a large buffer, from which
+ * bytes, longs and single bits are handed out. After every RESEEDBYTES bytes the key is mixed with a fresh seed
+ * from SecureRandom.
+ * </p>
+ */
+final class RandomSource {
+
+    private static final int KEYBYTESIZE = 32;
+    private static final int BUFFERBYTESIZE = 4096;
+    private static final long RESEEDBYTES = 1L << 20;
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Source of seeds only, used once per RESEEDBYTES.
+     */
+    private static final SecureRandom SEEDS = new SecureRandom();
+
+    private static final RandomSource SHARED = new RandomSource(Math.max(2, 2 * Runtime.getRuntime().availableProcessors()));
+
+    private static final class Generator {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final SHAKEDigest shake = new SHAKEDigest(256);
+        private final byte[] key = new byte[KEYBYTESIZE];
+        private final byte[] counterBytes = new byte[Long.BYTES];
+        private final byte[] buffer = new byte[BUFFERBYTESIZE];
+        /**
+         * Next unused byte of buffer, buffer.length forces refill (also the first one).
+         */
+        private int position = BUFFERBYTESIZE;
+        private long counter;
+        /**
+         * Starts above the limit, so the generator is seeded on its first use.
+         */
+        private long sinceReseed = RESEEDBYTES;
+        private int bits;
+        private int bitsLeft;
+
+        private void refill() {
+            if (sinceReseed >= RESEEDBYTES) {
+                byte[] seed = new byte[KEYBYTESIZE];
+                SEEDS.nextBytes(seed);
+                shake.update(key, 0, KEYBYTESIZE);
+                shake.update(seed, 0, KEYBYTESIZE);
+                shake.doFinal(key, 0, KEYBYTESIZE);
+                sinceReseed = 0;
+            }
+            counter++;
+            LONGS.set(counterBytes, 0, counter);
+            shake.update(key, 0, KEYBYTESIZE);
+            shake.update(counterBytes, 0, Long.BYTES);
+            shake.doOutput(key, 0, KEYBYTESIZE);
+            shake.doFinal(buffer, 0, BUFFERBYTESIZE);
+            position = 0;
+            sinceReseed += BUFFERBYTESIZE;
+        }
+
+        private void nextBytes(byte[] out, int off, int len) {
+            while (len > 0) {
+                if (position == BUFFERBYTESIZE) {
+                    refill();
+                }
+                int chunk = Math.min(len, BUFFERBYTESIZE - position);
+                System.arraycopy(buffer, position, out, off, chunk);
+                // used random bytes are not kept in memory
+                Arrays.fill(buffer, position, position + chunk, (byte) 0);
+                position += chunk;
+                off += chunk;
+                len -= chunk;
+            }
+        }
+
+        private long nextLong() {
+            if (BUFFERBYTESIZE - position < Long.BYTES) {
+                refill();  // the few bytes left are skipped
+            }
+            long value = (long) LONGS.get(buffer, position);
+            LONGS.set(buffer, position, 0L);
+            position += Long.BYTES;
+            return value;
+        }
+
+        private int nextBit() {
+            if (bitsLeft == 0) {
+                if (position == BUFFERBYTESIZE) {
+                    refill();
+                }
+                bits = buffer[position] & 0xFF;
+                buffer[position++] = 0;
+                bitsLeft = Byte.SIZE;
+            }
+            int bit = bits & 1;
+            bits >>>= 1;
+            bitsLeft--;
+            return bit;
+        }
+    }
+
+    private final Generator[] generators;
+
+    private RandomSource(int stripes) {
+        this.generators = new Generator[stripes];
+        for (int i = 0; i < stripes; i++) {
+            generators[i] = new Generator();
+        }
+    }
+
+    static RandomSource shared() {
+        return SHARED;
+    }
+
+    private Generator generator() {
+        return generators[(int) (Thread.currentThread().threadId() % generators.length)];
+    }
+
+    void nextBytes(byte[] out) {
+        Generator generator = generator();
+        generator.lock.lock();
+        try {
+            generator.nextBytes(out, 0, out.length);
+        } finally {
+            generator.lock.unlock();
+        }
+    }
+
+    void nextLongs(long[] out) {
+        Generator generator = generator();
+        generator.lock.lock();
+        try {
+            for (int i = 0; i < out.length; i++) {
+                out[i] = generator.nextLong();
+            }
+        } finally {
+            generator.lock.unlock();
+        }
+    }
+
+    int nextBit() {
+        Generator generator = generator();
+        generator.lock.lock();
+        try {
+            return generator.nextBit();
+        } finally {
+            generator.lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package protocol;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Represents long-running server, which handles many simultaneous handshakes on one Unix domain socket.
+ * <p>
+ * Two modes are available:
+ * SELECTOR - one NIO Selector event loop with per-connection Session state, math is done on a pool of workers,
+ * VIRTUAL_THREADS - each accepted connection is handled by blocking code in its own virtual thread.
+ * Server serves several parameter sets at once, each by its own ParameterSuite (NTT tables, samplers, caches, pools
+ * and verifier store), shared by all connections of the set. Phase0 message starts by the id of the set
+ * (see class ParameterSet) chosen by the client; an unknown or not served set ends the connection (or the stream).
+ * Every handshake gets its own Protocol (and so its own Engine and off-heap session state), closed with it.
+ * All messages are length-prefixed frames (see class FramedChannel) with payloads from one shared BufferPool.
+ * A connection which starts with the frame Multiplexer.REQUEST carries many interleaved handshakes instead of one,
+ * see class Multiplexer. In both modes its phases run concurrently and replies are written as soon as they are ready.
+ * SOURCE for selector logic: https://www.baeldung.com/java-nio-selector
+ * </p>
+ */
+class Server {
+
+    enum Mode {
+        SELECTOR,
+        VIRTUAL_THREADS;
+
+        static Mode parse(String name) {
+            return Mode.valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+    }
+
+    static final String HELLO = "Hello, I am the server!";
+    static final String GOODBYE = "Goodbye!";
+    private static final int POOLED_BUFFERS_PER_SIZE = 1024;
+
+    private final Path socketPath;
+    private final Mode mode;
+    private final Map<ParameterSet, ParameterSuite> suites = new EnumMap<>(ParameterSet.class);
+    private final BufferPool bufferPool = new BufferPool(POOLED_BUFFERS_PER_SIZE);
+
+    /**
+     * Sessions whose math was finished by a worker and which are waiting for the event loop to write the reply.
+     */
+    private final Queue<Session> processedSessions = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Serves exactly the parameter sets which have a verifier store, the stores are closed by the caller.
+     */
+    Server(Path socketPath, Mode mode, Map<ParameterSet, VerifierStore> verifiers) {
+        this.socketPath = socketPath;
+        this.mode = mode;
+        verifiers.forEach((set, store) -> suites.put(set, new ParameterSuite(set, store)));
+    }
+
+    /**
+     * Returns a new Protocol for the handshake which starts by phase0 message firstMessage. The parameter set is picked
+     * by its first byte, which is consumed, so the rest is passed to Protocol.phase0.
+     * The whole firstMessage starts the transcript of the protocol, the caller feeds the rest (see FramedChannel).
+     * @throws IllegalArgumentException if the message is empty or picks an unknown or not served parameter set
+     */
+    Protocol newProtocol(ByteBuffer firstMessage) {
+        if (!firstMessage.hasRemaining()) {
+            throw new IllegalArgumentException("Empty phase0 message");
+        }
+        ParameterSet set = ParameterSet.byId(firstMessage.get(firstMessage.position()));
+        ParameterSuite suite = suites.get(set);
+        if (suite == null) {
+            throw new IllegalArgumentException("Parameter set " + set + " is not served");
+        }
+        Protocol protocol = suite.newProtocol();
+        protocol.getTranscript().updateFrame(firstMessage);
+        firstMessage.position(firstMessage.position() + ParameterSet.IDBYTESIZE);
+        return protocol;
+    }
+
+    void run() throws IOException {
+        UnixDomainSocketAddress socketAddress = UnixDomainSocketAddress.of(socketPath);
+        Files.deleteIfExists(socketPath);  // left behind when previous server was killed
+
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            serverChannel.bind(socketAddress);
+            System.out.println("[Server] Listening on " + socketPath + " in mode " + mode + ", parameter sets " + suites.keySet());
+            switch (mode) {
+                case SELECTOR -> runSelector(serverChannel);
+                case VIRTUAL_THREADS -> runVirtualThreads(serverChannel);
+            }
+        } finally {
+            suites.values().forEach(ParameterSuite::close);
+            Files.deleteIfExists(socketPath); // server owns the socket file
+        }
+    }
+
+    // ---------- Virtual threads ---------- //
+
+    private void runVirtualThreads(ServerSocketChannel serverChannel) throws IOException {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            while (serverChannel.isOpen()) {
+                SocketChannel channel = serverChannel.accept();
+                executor.submit(() -> handleBlocking(channel, executor));
+            }
+        }
+    }
+
+    private void handleBlocking(SocketChannel channel, ExecutorService executor) {
+        FramedChannel framed = new FramedChannel(channel, bufferPool);
+        try {
+            ByteBuffer msg0 = framed.readFrameBlocking();
+            if (Multiplexer.isRequest(msg0)) {
+                framed.release(msg0);
+                handleMultiplexedBlocking(framed, executor);
+            } else {
+                handleHandshakeBlocking(framed, msg0);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[Server] Connection failed: " + e);
+        } finally {
+            framed.close();
+        }
+    }
+
+    /**
+     * One handshake per connection, msg0 is the already received phase0 message.
+     */
+    private void handleHandshakeBlocking(FramedChannel framed, ByteBuffer msg0) throws IOException {
+        Protocol protocol;
+        try {
+            protocol = newProtocol(msg0);
+        } catch (IllegalArgumentException e) {
+            framed.release(msg0);
+            throw e;
+        }
+        try (protocol) {
+            framed.setTranscript(protocol.getTranscript());
+            try {
+                protocol.phase0(msg0);
+            } finally {
+                framed.release(msg0);
+            }
+
+            // 2. Respond to client
+            queueString(framed, HELLO);
+            framed.flushBlocking();
+            System.out.println("[Server] Sent: " + HELLO);
+
+            // 3. Receive another message
+            String msg2 = readString(framed);
+            System.out.println("[Client] " + msg2);
+
+            // 4. Final response
+            queueString(framed, GOODBYE);
+            framed.flushBlocking();
+            System.out.println("[Server] Sent: " + GOODBYE);
+        }
+    }
+
+    /**
+     * This thread only reads frames, phases of streams run in their own virtual threads and write their replies.
+     * Returns when the client closes the connection.
+     */
+    private void handleMultiplexedBlocking(FramedChannel framed, ExecutorService executor) throws IOException {
+        BlockingReplies replies = new BlockingReplies(framed);
+        Multiplexer multiplexer = new Multiplexer(this, bufferPool, executor, replies);
+        try {
+            while (true) {
+                multiplexer.onFrame(framed.readFrameBlocking());
+            }
+        } catch (EOFException e) {
+            // client has finished
+        } finally {
+            multiplexer.close();
+            replies.close();
+        }
+    }
+
+    /**
+     * Writes replies of a multiplexed connection from any thread, one after another, until it is closed.
+     * Reading is done meanwhile by another thread, which FramedChannel allows.
+     */
+    private static final class BlockingReplies implements Consumer<ByteBuffer> {
+
+        private final FramedChannel framed;
+        /**
+         * Not synchronized, which would pin the virtual thread to its carrier during the write.
+         */
+        private final ReentrantLock lock = new ReentrantLock();
+        private boolean closed;
+
+        private BlockingReplies(FramedChannel framed) {
+            this.framed = framed;
+        }
+
+        @Override
+        public void accept(ByteBuffer payload) {
+            lock.lock();
+            try {
+                if (closed) {
+                    framed.release(payload);
+                    return;
+                }
+                framed.queueFrame(payload);
+                framed.flushBlocking();
+            } catch (IOException e) {
+                closed = true;  // the reading thread notices the broken connection as well
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * After this, no reply touches the channel, so it can be closed.
+         */
+        void close() {
+            lock.lock();
+            try {
+                closed = true;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    static void queueString(FramedChannel framed, String message) {
+        framed.queueFrame(ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    static String readString(FramedChannel framed) throws IOException {
+        ByteBuffer frame = framed.readFrameBlocking();
+        try {
+            return decodeString(frame);
+        } finally {
+            framed.release(frame);
+        }
+    }
+
+    static String decodeString(ByteBuffer frame) {
+        return StandardCharsets.UTF_8.decode(frame).toString();
+    }
+
+    // ---------- Selector ---------- //
+
+    private void runSelector(ServerSocketChannel serverChannel) throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try (Selector selector = Selector.open()) {
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+            while (serverChannel.isOpen()) {
+                selector.select();
+
+                Session processed;
+                while ((processed = processedSessions.poll()) != null) {
+                    try {
+                        processed.onProcessed();
+                    } catch (RuntimeException e) {
+                        System.err.println("[Server] Session failed: " + e);
+                        processed.close();
+                    }
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept(serverChannel, selector);
+                        continue;
+                    }
+                    Session session = (Session) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            session.onReadable(workers);
+                        }
+                        // a multiplexed session reads and writes at the same time
+                        if (key.isValid() && key.isWritable()) {
+                            session.onWritable();
+                        }
+                    } catch (IOException e) {
+                        session.close();
+                    } catch (RuntimeException e) {
+                        // one broken session must never stop the event loop
+                        System.err.println("[Server] Session failed: " + e);
+                        session.close();
+                    }
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private void accept(ServerSocketChannel serverChannel, Selector selector) throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Session(this, key, new FramedChannel(channel, bufferPool)));
+        }
+    }
+
+    /**
+     * Called by a worker thread, when the math of a session is done.
+     */
+    void sessionProcessed(Session session, Selector selector) {
+        processedSessions.add(session);
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,199 @@
+package protocol;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Represents state of one connection handled by the Selector event loop of class Server.
+ * <p>
+ * Goes through the same steps as the blocking handler: read phase0 message, run phase0, send hello,
+ * read another message, send goodbye and close.
+ * Reading and writing (through FramedChannel) is done only by the event loop. Phase math is done by a worker,
+ * which then hands the session back to the event loop through Server.sessionProcessed.
+ * Worker never touches the connection itself, even when phase0 fails it only records the failure for the event loop.
+ * A session which starts with Multiplexer.REQUEST stays in state MULTIPLEXED: its frames go to a Multiplexer,
+ * replies of its streams are handed back the same way and written while the session keeps reading.
+ * Protocol is created from the first message, which picks the parameter set (see Server.newProtocol).
+ * </p>
+ */
+class Session {
+
+    enum State {
+        READ_PHASE0,
+        PROCESSING_PHASE0,
+        WRITE_HELLO,
+        READ_MESSAGE,
+        WRITE_GOODBYE,
+        MULTIPLEXED
+    }
+
+    private final Server server;
+    private final SelectionKey key;
+    private final FramedChannel framed;
+    /**
+     * Null until the first message arrives, and in state MULTIPLEXED.
+     */
+    private Protocol protocol;
+
+    private State state;
+    /**
+     * Phase0 message, owned by the worker while in state PROCESSING_PHASE0.
+     */
+    private ByteBuffer phase0Frame;
+    /**
+     * Set by the worker, read by the event loop after the handover through Server.sessionProcessed.
+     */
+    private Exception processingFailure;
+    /**
+     * Not null in state MULTIPLEXED.
+     */
+    private Multiplexer multiplexer;
+    /**
+     * Replies of streams added by workers, taken by the event loop.
+     */
+    private final Queue<ByteBuffer> readyReplies = new ConcurrentLinkedQueue<>();
+
+    Session(Server server, SelectionKey key, FramedChannel framed) {
+        this.server = server;
+        this.key = key;
+        this.framed = framed;
+        this.state = State.READ_PHASE0;
+    }
+
+    void onReadable(Executor workers) throws IOException {
+        ByteBuffer frame = framed.readFrame();
+        if (frame == null) {
+            return;  // wait for the rest of the frame
+        }
+        switch (state) {
+            case READ_PHASE0 -> {
+                if (Multiplexer.isRequest(frame)) {
+                    framed.release(frame);
+                    multiplexer = new Multiplexer(server, framed.getPool(), workers, this::replyReady);
+                    state = State.MULTIPLEXED;
+                    return;
+                }
+                try {
+                    protocol = server.newProtocol(frame);
+                } catch (IllegalArgumentException e) {
+                    framed.release(frame);
+                    throw new ProtocolException(e.getMessage());
+                }
+                framed.setTranscript(protocol.getTranscript());
+                phase0Frame = frame;
+                state = State.PROCESSING_PHASE0;
+                key.interestOps(0);
+                workers.execute(this::processPhase0);
+            }
+            case READ_MESSAGE -> {
+                String msg2 = Server.decodeString(frame);
+                framed.release(frame);
+                System.out.println("[Client] " + msg2);
+                startWriting(Server.GOODBYE, State.WRITE_GOODBYE);
+            }
+            case MULTIPLEXED -> multiplexer.onFrame(frame);
+            default -> {
+                framed.release(frame);
+                throw new IllegalStateException("Unexpected read in state " + state);
+            }
+        }
+    }
+
+    void onWritable() throws IOException {
+        if (!framed.flush()) {
+            return;  // wait until the socket accepts the rest
+        }
+        switch (state) {
+            case WRITE_HELLO -> {
+                System.out.println("[Server] Sent: " + Server.HELLO);
+                state = State.READ_MESSAGE;
+                key.interestOps(SelectionKey.OP_READ);
+            }
+            case WRITE_GOODBYE -> {
+                System.out.println("[Server] Sent: " + Server.GOODBYE);
+                close();
+            }
+            case MULTIPLEXED -> key.interestOps(SelectionKey.OP_READ);  // until next replies are ready
+            default -> throw new IllegalStateException("Unexpected write in state " + state);
+        }
+    }
+
+    /**
+     * Runs on a worker thread.
+     */
+    private void processPhase0() {
+        try {
+            protocol.phase0(phase0Frame);
+        } catch (IOException | RuntimeException e) {
+            processingFailure = e;
+        }
+        server.sessionProcessed(this, key.selector());
+    }
+
+    /**
+     * Runs on a worker thread, when a stream of a multiplexed session has a reply.
+     */
+    private void replyReady(ByteBuffer payload) {
+        readyReplies.add(payload);
+        server.sessionProcessed(this, key.selector());
+    }
+
+    /**
+     * Runs on the event loop after processPhase0 has finished, or after replyReady in state MULTIPLEXED.
+     */
+    void onProcessed() {
+        if (state == State.MULTIPLEXED) {
+            queueReadyReplies();
+            return;
+        }
+        framed.release(phase0Frame);
+        phase0Frame = null;
+        if (processingFailure != null) {
+            System.err.println("[Server] Connection failed: " + processingFailure);
+            close();
+            return;
+        }
+        if (!key.isValid()) {
+            return;
+        }
+        startWriting(Server.HELLO, State.WRITE_HELLO);
+    }
+
+    private void queueReadyReplies() {
+        boolean queued = false;
+        ByteBuffer reply;
+        while ((reply = readyReplies.poll()) != null) {
+            if (!key.isValid()) {
+                framed.release(reply);  // session already closed
+                continue;
+            }
+            framed.queueFrame(reply);
+            queued = true;
+        }
+        if (queued) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void startWriting(String message, State writeState) {
+        Server.queueString(framed, message);
+        state = writeState;
+        key.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    void close() {
+        key.cancel();
+        if (multiplexer != null) {
+            multiplexer.close();
+        }
+        framed.close();
+        if (protocol != null) {
+            protocol.close();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package protocol;
+
+import org.bouncycastle.crypto.digests.SHA3Digest;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Represents the running SHA3-256 hash of the transcript of one handshake, fed frame by frame as messages stream in.
+ * <p>
+ * Unlike Engine.hash, which needs the whole input in one byte[], the transcript absorbs every frame (4 bytes
+ * big-endian length and payload, exactly as on the wire, see class FramedChannel) as soon as it is read or queued,
+ * so a session keeps only the Keccak state and a small scratch buffer, whatever the size of its polynomials.
+ * Values bound to the transcript (session keys, separate client and server confirmation tags) are computed by tag
+ * from a copy of the state, so the transcript itself can go on. Only the Keccak state is copied.
+ * Both sides get the same transcript, because the handshake alternates strictly between them and FramedChannel
+ * never reads beyond the current frame. All methods are thread-safe.
+ * </p>
+ */
+final class Transcript {
+
+    private static final int SCRATCHBYTESIZE = 256;
+
+    private final SHA3Digest digest;
+    /**
+     * For bytes of direct buffers, which the digest can not read directly.
+     */
+    private final byte[] scratch = new byte[SCRATCHBYTESIZE];
+
+    Transcript() {
+        this.digest = new SHA3Digest(256);
+    }
+
+    /**
+     * Absorbs one frame made of payload parts (each from its position to its limit, positions do not move).
+     */
+    synchronized void updateFrame(ByteBuffer... payloadParts) {
+        int length = 0;
+        for (ByteBuffer part : payloadParts) {
+            length += part.remaining();
+        }
+        scratch[0] = (byte) (length >>> 24);
+        scratch[1] = (byte) (length >>> 16);
+        scratch[2] = (byte) (length >>> 8);
+        scratch[3] = (byte) length;
+        digest.update(scratch, 0, FramedChannel.HEADERBYTESIZE);
+        for (ByteBuffer part : payloadParts) {
+            update(part);
+        }
+    }
+
+    private void update(ByteBuffer part) {
+        if (part.hasArray()) {
+            digest.update(part.array(), part.arrayOffset() + part.position(), part.remaining());
+            return;
+        }
+        for (int offset = part.position(); offset < part.limit(); offset += SCRATCHBYTESIZE) {
+            int length = Math.min(SCRATCHBYTESIZE, part.limit() - offset);
+            part.get(offset, scratch, 0, length);
+            digest.update(scratch, 0, length);
+        }
+    }
+
+    /**
+     * SHA3-256(transcript so far || label || key), e.g. a confirmation tag. The transcript itself does not change.
+     */
+    byte[] tag(byte[] label, byte[] key) {
+        SHA3Digest forked;
+        synchronized (this) {
+            forked = new SHA3Digest(digest);
+        }
+        forked.update(label, 0, label.length);
+        forked.update(key, 0, key.length);
+        byte[] tag = new byte[forked.getDigestSize()];
+        forked.doFinal(tag, 0);
+        return tag;
+    }
+
+    /**
+     * Starts a new, empty transcript.
+     */
+    synchronized void reset() {
+        digest.reset();
+    }
+}
@@ -0,0 +1,138 @@
+package protocol;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Represents bounded cache from publicSeed to the uniform polynomial a (in NTT form) generated from it.
+ * <p>
+ * Most handshakes reuse few public seeds (e.g. the one registered by the user in phase0), so repeated logins
+ * skip absorbing the seed, squeezing SHAKE128 and rejection sampling. Cache is bounded by the bytes held
+ * by cached polynomials. It is shared by all sessions and all methods are thread-safe: a hit is one lookup
+ * in a ConcurrentHashMap and takes no lock, and a polynomial is generated outside of any lock, so a miss
+ * does not block other sessions either. Eviction approximates LRU by the CLOCK algorithm: a hit only marks
+ * its entry as referenced, and the evicting thread skips (and unmarks) referenced entries once before evicting them.
+ * Cached coefficients are never handed out, get copies them into the polynomial of the caller, so no session
+ * can modify a of the others.
+ * </p>
+ */
+final class UniformPolynomialCache {
+
+    /**
+     * Estimate of memory taken by one entry besides the coefficients (key, entries of map and queue).
+     */
+    private static final int ENTRYOVERHEADBYTESIZE = 128;
+
+    private static final class Entry {
+        private final String key;
+        private final int[] coeffs;
+        /**
+         * Set by hits, cleared by the evicting thread.
+         */
+        private volatile boolean referenced;
+
+        private Entry(String key, int[] coeffs) {
+            this.key = key;
+            this.coeffs = coeffs;
+        }
+    }
+
+    private final Mlkem mlkem;
+    private final int n;
+    private final int maxEntries;
+
+    /**
+     * Key is the seed decoded as ISO-8859-1, so every byte array is a different key.
+     */
+    private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<>();
+    /**
+     * All cached entries from the oldest inserted, the hand of CLOCK is its head. Guarded by itself for eviction.
+     */
+    private final Queue<Entry> clock = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final Metrics metrics = Metrics.shared();
+
+    UniformPolynomialCache(int n, BigInteger q, long maxBytes) {
+        this.mlkem = new Mlkem(n, q);
+        this.n = n;
+        long entryBytes = (long) n * Integer.BYTES + ENTRYOVERHEADBYTESIZE;
+        this.maxEntries = Math.clamp(maxBytes / entryBytes, 1, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Writes a generated from the seed into aNtt, generates it (by engine e and its buffer xofBuffer, see
+     * Mlkem.generateUniformPolynomialNtt) only if it is not cached.
+     */
+    void get(Engine e, byte[] seed, byte[] xofBuffer, Polynomial aNtt) {
+        String key = new String(seed, StandardCharsets.ISO_8859_1);
+        Entry cached = cache.get(key);
+        if (cached != null) {
+            hits.increment();
+            if (!cached.referenced) {
+                cached.referenced = true;  // written only when it changes, hot entries stay in the caches of all cores
+            }
+            System.arraycopy(cached.coeffs, 0, aNtt.getCoeffs(), 0, n);
+            aNtt.setDomain(Polynomial.Domain.NTT);
+            return;
+        }
+        misses.increment();
+        long begin = metrics.begin();
+        mlkem.generateUniformPolynomialNtt(e, aNtt, seed, xofBuffer);
+        metrics.end(Metrics.Stage.XOF, begin);
+        Entry entry = new Entry(key, aNtt.getCoeffs().clone());
+        if (cache.putIfAbsent(key, entry) != null) {
+            return;  // other session generated it meanwhile
+        }
+        clock.offer(entry);
+        if (size.incrementAndGet() > maxEntries) {
+            evict();
+        }
+    }
+
+    /**
+     * Only one thread evicts at a time, hits go on meanwhile.
+     */
+    private void evict() {
+        synchronized (clock) {
+            while (size.get() > maxEntries) {
+                Entry candidate = clock.poll();
+                if (candidate == null) {
+                    return;
+                }
+                if (candidate.referenced) {
+                    candidate.referenced = false;  // second chance
+                    clock.offer(candidate);
+                    continue;
+                }
+                cache.remove(candidate.key, candidate);
+                size.decrementAndGet();
+                evictions.increment();
+            }
+        }
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    long getEvictions() {
+        return evictions.sum();
+    }
+
+    int size() {
+        return size.get();
+    }
+}
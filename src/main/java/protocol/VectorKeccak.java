@@ -0,0 +1,148 @@
+package protocol;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import static protocol.ParallelShake.ROUNDS;
+import static protocol.ParallelShake.ROUND_CONSTANTS;
+
+/**
+ * Represents SIMD backend of class ParallelShake built on the Java Vector API (module jdk.incubator.vector).
+ * <p>
+ * Permutes LANES interleaved Keccak states at once, word i of all of them is one LongVector.
+ * It is the same fully unrolled permutation as ParallelShake.permute, only on vectors.
+ * The module must be added to the JVM by --add-modules jdk.incubator.vector, class ParallelShake checks it before first use.
+ * </p>
+ */
+final class VectorKeccak {
+
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_256;
+    static final int LANES = 4;
+
+    private VectorKeccak() {
+    }
+
+    /**
+     * Returns false if the hardware has no vectors of at least 4 longs (then the scalar code is faster).
+     */
+    static boolean isSupported() {
+        return LongVector.SPECIES_PREFERRED.length() >= LANES;
+    }
+
+    static void permute(long[] state) {
+        LongVector a00 = LongVector.fromArray(SPECIES, state, 0 * LANES);
+        LongVector a01 = LongVector.fromArray(SPECIES, state, 1 * LANES);
+        LongVector a02 = LongVector.fromArray(SPECIES, state, 2 * LANES);
+        LongVector a03 = LongVector.fromArray(SPECIES, state, 3 * LANES);
+        LongVector a04 = LongVector.fromArray(SPECIES, state, 4 * LANES);
+        LongVector a05 = LongVector.fromArray(SPECIES, state, 5 * LANES);
+        LongVector a06 = LongVector.fromArray(SPECIES, state, 6 * LANES);
+        LongVector a07 = LongVector.fromArray(SPECIES, state, 7 * LANES);
+        LongVector a08 = LongVector.fromArray(SPECIES, state, 8 * LANES);
+        LongVector a09 = LongVector.fromArray(SPECIES, state, 9 * LANES);
+        LongVector a10 = LongVector.fromArray(SPECIES, state, 10 * LANES);
+        LongVector a11 = LongVector.fromArray(SPECIES, state, 11 * LANES);
+        LongVector a12 = LongVector.fromArray(SPECIES, state, 12 * LANES);
+        LongVector a13 = LongVector.fromArray(SPECIES, state, 13 * LANES);
+        LongVector a14 = LongVector.fromArray(SPECIES, state, 14 * LANES);
+        LongVector a15 = LongVector.fromArray(SPECIES, state, 15 * LANES);
+        LongVector a16 = LongVector.fromArray(SPECIES, state, 16 * LANES);
+        LongVector a17 = LongVector.fromArray(SPECIES, state, 17 * LANES);
+        LongVector a18 = LongVector.fromArray(SPECIES, state, 18 * LANES);
+        LongVector a19 = LongVector.fromArray(SPECIES, state, 19 * LANES);
+        LongVector a20 = LongVector.fromArray(SPECIES, state, 20 * LANES);
+        LongVector a21 = LongVector.fromArray(SPECIES, state, 21 * LANES);
+        LongVector a22 = LongVector.fromArray(SPECIES, state, 22 * LANES);
+        LongVector a23 = LongVector.fromArray(SPECIES, state, 23 * LANES);
+        LongVector a24 = LongVector.fromArray(SPECIES, state, 24 * LANES);
+        for (int round = 0; round < ROUNDS; round++) {
+            LongVector c0 = a00.lanewise(VectorOperators.XOR, a05).lanewise(VectorOperators.XOR, a10).lanewise(VectorOperators.XOR, a15).lanewise(VectorOperators.XOR, a20);
+            LongVector c1 = a01.lanewise(VectorOperators.XOR, a06).lanewise(VectorOperators.XOR, a11).lanewise(VectorOperators.XOR, a16).lanewise(VectorOperators.XOR, a21);
+            LongVector c2 = a02.lanewise(VectorOperators.XOR, a07).lanewise(VectorOperators.XOR, a12).lanewise(VectorOperators.XOR, a17).lanewise(VectorOperators.XOR, a22);
+            LongVector c3 = a03.lanewise(VectorOperators.XOR, a08).lanewise(VectorOperators.XOR, a13).lanewise(VectorOperators.XOR, a18).lanewise(VectorOperators.XOR, a23);
+            LongVector c4 = a04.lanewise(VectorOperators.XOR, a09).lanewise(VectorOperators.XOR, a14).lanewise(VectorOperators.XOR, a19).lanewise(VectorOperators.XOR, a24);
+            LongVector d0 = c4.lanewise(VectorOperators.XOR, c1.lanewise(VectorOperators.ROL, 1));
+            LongVector d1 = c0.lanewise(VectorOperators.XOR, c2.lanewise(VectorOperators.ROL, 1));
+            LongVector d2 = c1.lanewise(VectorOperators.XOR, c3.lanewise(VectorOperators.ROL, 1));
+            LongVector d3 = c2.lanewise(VectorOperators.XOR, c4.lanewise(VectorOperators.ROL, 1));
+            LongVector d4 = c3.lanewise(VectorOperators.XOR, c0.lanewise(VectorOperators.ROL, 1));
+            LongVector b00 = a00.lanewise(VectorOperators.XOR, d0);
+            LongVector b01 = a06.lanewise(VectorOperators.XOR, d1).lanewise(VectorOperators.ROL, 44);
+            LongVector b02 = a12.lanewise(VectorOperators.XOR, d2).lanewise(VectorOperators.ROL, 43);
+            LongVector b03 = a18.lanewise(VectorOperators.XOR, d3).lanewise(VectorOperators.ROL, 21);
+            LongVector b04 = a24.lanewise(VectorOperators.XOR, d4).lanewise(VectorOperators.ROL, 14);
+            LongVector b05 = a03.lanewise(VectorOperators.XOR, d3).lanewise(VectorOperators.ROL, 28);
+            LongVector b06 = a09.lanewise(VectorOperators.XOR, d4).lanewise(VectorOperators.ROL, 20);
+            LongVector b07 = a10.lanewise(VectorOperators.XOR, d0).lanewise(VectorOperators.ROL, 3);
+            LongVector b08 = a16.lanewise(VectorOperators.XOR, d1).lanewise(VectorOperators.ROL, 45);
+            LongVector b09 = a22.lanewise(VectorOperators.XOR, d2).lanewise(VectorOperators.ROL, 61);
+            LongVector b10 = a01.lanewise(VectorOperators.XOR, d1).lanewise(VectorOperators.ROL, 1);
+            LongVector b11 = a07.lanewise(VectorOperators.XOR, d2).lanewise(VectorOperators.ROL, 6);
+            LongVector b12 = a13.lanewise(VectorOperators.XOR, d3).lanewise(VectorOperators.ROL, 25);
+            LongVector b13 = a19.lanewise(VectorOperators.XOR, d4).lanewise(VectorOperators.ROL, 8);
+            LongVector b14 = a20.lanewise(VectorOperators.XOR, d0).lanewise(VectorOperators.ROL, 18);
+            LongVector b15 = a04.lanewise(VectorOperators.XOR, d4).lanewise(VectorOperators.ROL, 27);
+            LongVector b16 = a05.lanewise(VectorOperators.XOR, d0).lanewise(VectorOperators.ROL, 36);
+            LongVector b17 = a11.lanewise(VectorOperators.XOR, d1).lanewise(VectorOperators.ROL, 10);
+            LongVector b18 = a17.lanewise(VectorOperators.XOR, d2).lanewise(VectorOperators.ROL, 15);
+            LongVector b19 = a23.lanewise(VectorOperators.XOR, d3).lanewise(VectorOperators.ROL, 56);
+            LongVector b20 = a02.lanewise(VectorOperators.XOR, d2).lanewise(VectorOperators.ROL, 62);
+            LongVector b21 = a08.lanewise(VectorOperators.XOR, d3).lanewise(VectorOperators.ROL, 55);
+            LongVector b22 = a14.lanewise(VectorOperators.XOR, d4).lanewise(VectorOperators.ROL, 39);
+            LongVector b23 = a15.lanewise(VectorOperators.XOR, d0).lanewise(VectorOperators.ROL, 41);
+            LongVector b24 = a21.lanewise(VectorOperators.XOR, d1).lanewise(VectorOperators.ROL, 2);
+            a00 = b00.lanewise(VectorOperators.XOR, b01.not().and(b02));
+            a01 = b01.lanewise(VectorOperators.XOR, b02.not().and(b03));
+            a02 = b02.lanewise(VectorOperators.XOR, b03.not().and(b04));
+            a03 = b03.lanewise(VectorOperators.XOR, b04.not().and(b00));
+            a04 = b04.lanewise(VectorOperators.XOR, b00.not().and(b01));
+            a05 = b05.lanewise(VectorOperators.XOR, b06.not().and(b07));
+            a06 = b06.lanewise(VectorOperators.XOR, b07.not().and(b08));
+            a07 = b07.lanewise(VectorOperators.XOR, b08.not().and(b09));
+            a08 = b08.lanewise(VectorOperators.XOR, b09.not().and(b05));
+            a09 = b09.lanewise(VectorOperators.XOR, b05.not().and(b06));
+            a10 = b10.lanewise(VectorOperators.XOR, b11.not().and(b12));
+            a11 = b11.lanewise(VectorOperators.XOR, b12.not().and(b13));
+            a12 = b12.lanewise(VectorOperators.XOR, b13.not().and(b14));
+            a13 = b13.lanewise(VectorOperators.XOR, b14.not().and(b10));
+            a14 = b14.lanewise(VectorOperators.XOR, b10.not().and(b11));
+            a15 = b15.lanewise(VectorOperators.XOR, b16.not().and(b17));
+            a16 = b16.lanewise(VectorOperators.XOR, b17.not().and(b18));
+            a17 = b17.lanewise(VectorOperators.XOR, b18.not().and(b19));
+            a18 = b18.lanewise(VectorOperators.XOR, b19.not().and(b15));
+            a19 = b19.lanewise(VectorOperators.XOR, b15.not().and(b16));
+            a20 = b20.lanewise(VectorOperators.XOR, b21.not().and(b22));
+            a21 = b21.lanewise(VectorOperators.XOR, b22.not().and(b23));
+            a22 = b22.lanewise(VectorOperators.XOR, b23.not().and(b24));
+            a23 = b23.lanewise(VectorOperators.XOR, b24.not().and(b20));
+            a24 = b24.lanewise(VectorOperators.XOR, b20.not().and(b21));
+            a00 = a00.lanewise(VectorOperators.XOR, ROUND_CONSTANTS[round]);
+        }
+        a00.intoArray(state, 0 * LANES);
+        a01.intoArray(state, 1 * LANES);
+        a02.intoArray(state, 2 * LANES);
+        a03.intoArray(state, 3 * LANES);
+        a04.intoArray(state, 4 * LANES);
+        a05.intoArray(state, 5 * LANES);
+        a06.intoArray(state, 6 * LANES);
+        a07.intoArray(state, 7 * LANES);
+        a08.intoArray(state, 8 * LANES);
+        a09.intoArray(state, 9 * LANES);
+        a10.intoArray(state, 10 * LANES);
+        a11.intoArray(state, 11 * LANES);
+        a12.intoArray(state, 12 * LANES);
+        a13.intoArray(state, 13 * LANES);
+        a14.intoArray(state, 14 * LANES);
+        a15.intoArray(state, 15 * LANES);
+        a16.intoArray(state, 16 * LANES);
+        a17.intoArray(state, 17 * LANES);
+        a18.intoArray(state, 18 * LANES);
+        a19.intoArray(state, 19 * LANES);
+        a20.intoArray(state, 20 * LANES);
+        a21.intoArray(state, 21 * LANES);
+        a22.intoArray(state, 22 * LANES);
+        a23.intoArray(state, 23 * LANES);
+        a24.intoArray(state, 24 * LANES);
+    }
+}
@@ -0,0 +1,185 @@
+package protocol;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Represents SIMD backend of class Ntt built on the Java Vector API (module jdk.incubator.vector).
+ * <p>
+ * Montgomery reduction needs the whole 64-bit product, which IntVector cannot provide, so coefficients are loaded
+ * into IntVector of half the preferred shape, widened into LongVector of the preferred shape
+ * (8 lanes on AVX-512, 4 lanes on AVX2), reduced there and narrowed back.
+ * Pointwise addition and subtraction use the same IntVector shape. Mixing two int shapes made JIT box vectors.
+ * Only runs of at least length() coefficients are handled here, shorter strides are left to the scalar code in Ntt.
+ * Results are exactly the same as the results of the scalar code.
+ * The module must be added to the JVM by --add-modules jdk.incubator.vector, class Ntt checks it before first use.
+ * </p>
+ */
+class VectorNtt {
+
+    static final String MODULE = "jdk.incubator.vector";
+
+    /**
+     * Species must be constants, otherwise JIT does not turn vector operations into SIMD instructions.
+     * Both have the same number of lanes, so widening and narrowing never splits a vector.
+     */
+    private static final VectorSpecies<Long> LONG_SPECIES = LongVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INT_SPECIES =
+            VectorSpecies.of(int.class, VectorShape.forBitSize(LONG_SPECIES.vectorBitSize() / 2));
+
+    private final int q;
+    private final long qInv;
+    private final long rSquared;
+
+    private VectorNtt(Montgomery montgomery) {
+        this.q = montgomery.getQ();
+        this.qInv = montgomery.getQInv();
+        this.rSquared = montgomery.getRSquared();
+    }
+
+    /**
+     * Returns null if the hardware has no vectors of at least 4 longs (then the scalar code is faster).
+     */
+    static VectorNtt create(Montgomery montgomery) {
+        if (LongVector.SPECIES_PREFERRED.length() < 4) {
+            return null;
+        }
+        return new VectorNtt(montgomery);
+    }
+
+    /**
+     * Number of coefficients processed by one instruction.
+     */
+    int length() {
+        return INT_SPECIES.length();
+    }
+
+    // Montgomery reduction (see Montgomery.reduce) is written out in every loop on purpose. When it was in a helper
+    // method returning a vector, JIT did not always inline it and every intermediate vector was boxed on the heap.
+
+    /**
+     * Forward butterflies of one subpolynomial: c[i] = c[i] - zeta * c[i + halfLen], c[i + halfLen] = c[i] + zeta * c[i + halfLen].
+     * halfLen must be a multiple of length(), zeta is in Montgomery form.
+     */
+    void forwardButterflies(int[] coeffs, int subpolyStart, int halfLen, int zeta) {
+        for (int i = subpolyStart; i < subpolyStart + halfLen; i += INT_SPECIES.length()) {
+            IntVector c = IntVector.fromArray(INT_SPECIES, coeffs, i);
+            LongVector product = ((LongVector) IntVector.fromArray(INT_SPECIES, coeffs, i + halfLen)
+                    .castShape(LONG_SPECIES, 0)).mul(zeta);
+            LongVector m = product.mul(qInv).lanewise(VectorOperators.LSHL, 32).lanewise(VectorOperators.ASHR, 32);
+            IntVector t = (IntVector) product.sub(m.mul(q)).lanewise(VectorOperators.ASHR, 32).castShape(INT_SPECIES, 0);
+            t = t.add(t.lanewise(VectorOperators.ASHR, 31).and(q));
+            IntVector low = c.sub(t);
+            IntVector high = c.add(t).sub(q);
+            low.add(low.lanewise(VectorOperators.ASHR, 31).and(q)).intoArray(coeffs, i);
+            high.add(high.lanewise(VectorOperators.ASHR, 31).and(q)).intoArray(coeffs, i + halfLen);
+        }
+    }
+
+    /**
+     * Inverse butterflies of one subpolynomial: c[i] = c[i] + c[i + halfLen], c[i + halfLen] = zeta * (c[i] - c[i + halfLen]).
+     * halfLen must be a multiple of length(), zeta is in Montgomery form.
+     */
+    void inverseButterflies(int[] coeffs, int subpolyStart, int halfLen, int zeta) {
+        for (int i = subpolyStart; i < subpolyStart + halfLen; i += INT_SPECIES.length()) {
+            IntVector c = IntVector.fromArray(INT_SPECIES, coeffs, i);
+            IntVector cHalf = IntVector.fromArray(INT_SPECIES, coeffs, i + halfLen);
+            IntVector sum = c.add(cHalf).sub(q);
+            sum.add(sum.lanewise(VectorOperators.ASHR, 31).and(q)).intoArray(coeffs, i);
+            IntVector difference = c.sub(cHalf);
+            difference = difference.add(difference.lanewise(VectorOperators.ASHR, 31).and(q));
+            LongVector product = ((LongVector) difference.castShape(LONG_SPECIES, 0)).mul(zeta);
+            LongVector m = product.mul(qInv).lanewise(VectorOperators.LSHL, 32).lanewise(VectorOperators.ASHR, 32);
+            IntVector t = (IntVector) product.sub(m.mul(q)).lanewise(VectorOperators.ASHR, 32).castShape(INT_SPECIES, 0);
+            t.add(t.lanewise(VectorOperators.ASHR, 31).and(q)).intoArray(coeffs, i + halfLen);
+        }
+    }
+
+    /**
+     * Multiplies all coefficients by a constant in Montgomery form. Length of coeffs must be a multiple of length().
+     */
+    void multiplyConstant(int[] coeffs, int constant) {
+        multiplyConstant(coeffs, constant, coeffs);
+    }
+
+    /**
+     * result[i] = a[i] * constant, where constant is in Montgomery form. Length of arrays must be a multiple of length().
+     */
+    void multiplyConstant(int[] a, int constant, int[] result) {
+        for (int i = 0; i < result.length; i += INT_SPECIES.length()) {
+            LongVector product = ((LongVector) IntVector.fromArray(INT_SPECIES, a, i)
+                    .castShape(LONG_SPECIES, 0)).mul(constant);
+            LongVector m = product.mul(qInv).lanewise(VectorOperators.LSHL, 32).lanewise(VectorOperators.ASHR, 32);
+            IntVector t = (IntVector) product.sub(m.mul(q)).lanewise(VectorOperators.ASHR, 32).castShape(INT_SPECIES, 0);
+            t.add(t.lanewise(VectorOperators.ASHR, 31).and(q)).intoArray(result, i);
+        }
+    }
+
+    /**
+     * result[i] = a[i] + b[i] modulo q.
+     */
+    void add(int[] a, int[] b, int[] result) {
+        int i = 0;
+        for (; i < INT_SPECIES.loopBound(result.length); i += INT_SPECIES.length()) {
+            IntVector sum = IntVector.fromArray(INT_SPECIES, a, i).add(IntVector.fromArray(INT_SPECIES, b, i)).sub(q);
+            sum.add(sum.lanewise(VectorOperators.ASHR, 31).and(q)).intoArray(result, i);
+        }
+        for (; i < result.length; i++) {
+            int sum = a[i] + b[i] - q;
+            result[i] = sum + ((sum >> 31) & q);
+        }
+    }
+
+    /**
+     * result[i] = a[i] - b[i] modulo q.
+     */
+    void subtract(int[] a, int[] b, int[] result) {
+        int i = 0;
+        for (; i < INT_SPECIES.loopBound(result.length); i += INT_SPECIES.length()) {
+            IntVector difference = IntVector.fromArray(INT_SPECIES, a, i).sub(IntVector.fromArray(INT_SPECIES, b, i));
+            difference.add(difference.lanewise(VectorOperators.ASHR, 31).and(q)).intoArray(result, i);
+        }
+        for (; i < result.length; i++) {
+            int difference = a[i] - b[i];
+            result[i] = difference + ((difference >> 31) & q);
+        }
+    }
+
+    /**
+     * result[i] = a[i] * b[i] modulo q. Length of arrays must be a multiple of length().
+     */
+    void multiply(int[] a, int[] b, int[] result) {
+        for (int i = 0; i < result.length; i += INT_SPECIES.length()) {
+            LongVector x = (LongVector) IntVector.fromArray(INT_SPECIES, a, i).castShape(LONG_SPECIES, 0);
+            LongVector y = (LongVector) IntVector.fromArray(INT_SPECIES, b, i).castShape(LONG_SPECIES, 0);
+            // First reduction gives a * b * 2^(-32), second one multiplies it by 2^64 * 2^(-32).
+            LongVector product = x.mul(y);
+            LongVector m = product.mul(qInv).lanewise(VectorOperators.LSHL, 32).lanewise(VectorOperators.ASHR, 32);
+            product = product.sub(m.mul(q)).lanewise(VectorOperators.ASHR, 32).mul(rSquared);
+            m = product.mul(qInv).lanewise(VectorOperators.LSHL, 32).lanewise(VectorOperators.ASHR, 32);
+            IntVector t = (IntVector) product.sub(m.mul(q)).lanewise(VectorOperators.ASHR, 32).castShape(INT_SPECIES, 0);
+            t.add(t.lanewise(VectorOperators.ASHR, 31).and(q)).intoArray(result, i);
+        }
+    }
+
+    /**
+     * result[i] = a[i] * s[i] + c * e[i] modulo q, where c is in Montgomery form. See Ntt.multiplyAddScaled.
+     * Length of arrays must be a multiple of length().
+     */
+    void multiplyAddScaled(int[] a, int[] s, int c, int[] e, int[] result) {
+        for (int i = 0; i < result.length; i += INT_SPECIES.length()) {
+            LongVector x = (LongVector) IntVector.fromArray(INT_SPECIES, a, i).castShape(LONG_SPECIES, 0);
+            LongVector y = (LongVector) IntVector.fromArray(INT_SPECIES, s, i).castShape(LONG_SPECIES, 0);
+            LongVector z = (LongVector) IntVector.fromArray(INT_SPECIES, e, i).castShape(LONG_SPECIES, 0);
+            LongVector product = x.mul(y);
+            LongVector m = product.mul(qInv).lanewise(VectorOperators.LSHL, 32).lanewise(VectorOperators.ASHR, 32);
+            product = product.sub(m.mul(q)).lanewise(VectorOperators.ASHR, 32).mul(rSquared).add(z.mul(c));
+            m = product.mul(qInv).lanewise(VectorOperators.LSHL, 32).lanewise(VectorOperators.ASHR, 32);
+            IntVector t = (IntVector) product.sub(m.mul(q)).lanewise(VectorOperators.ASHR, 32).castShape(INT_SPECIES, 0);
+            t.add(t.lanewise(VectorOperators.ASHR, 31).and(q)).intoArray(result, i);
+        }
+    }
+}
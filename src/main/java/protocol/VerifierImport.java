@@ -0,0 +1,288 @@
+package protocol;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Bulk enrollment: imports registrations from a record file into the verifier store, e.g. when a tenant is onboarded.
+ * <p>
+ * Record file is a sequence of fixed-size records without any header: identity, publicSeed and salt (sizes as in
+ * class Protocol) and v bit-packed as in class Polynomial, but in coefficient form; the import converts it to NTT form
+ * in which the store keeps it. Pipeline: the calling thread reads the file sequentially in batches, every batch is
+ * decoded and transformed on a ForkJoinPool (split into ranges of SPLITRECORDS records) and one writer thread appends
+ * decoded batches in file order by VerifierStore.registerAll, so a later record of the same identity wins.
+ * Memory is bounded whatever the size of the file: only INFLIGHTBATCHES batches exist, their buffers and polynomials
+ * are allocated once and passed around, so the reader waits when decoding or the disk falls behind.
+ * Records with a coefficient not reduced modulo q are skipped and counted. Progress is printed every second,
+ * summary at the end. Store is locked while it is open (see VerifierStore.open), so stop the server first.
+ * Parameters are system properties (with defaults):
+ * protocol.import.file (required, or the first argument), protocol.verifiers (~/verifiers),
+ * protocol.import.batch (4096 records), protocol.import.parallelism (number of cores),
+ * protocol.import.set (parameter set of all records, see class ParameterSet, n1024). Store of the set is found
+ * the same way as by class Main.
+ * </p>
+ */
+public class VerifierImport {
+
+    private static final String FILE_PROPERTY = "protocol.import.file";
+    private static final String VERIFIERS_PROPERTY = "protocol.verifiers";
+    private static final String BATCH_PROPERTY = "protocol.import.batch";
+    private static final String PARALLELISM_PROPERTY = "protocol.import.parallelism";
+    private static final String SET_PROPERTY = "protocol.import.set";
+    private static final int VERIFIERS_CACHE_CAPACITY = 16;  // import does not look anything up
+    private static final int INFLIGHTBATCHES = 4;  // one being read, the rest decoded or written
+    private static final int SPLITRECORDS = 64;
+    private static final int MAXREPORTEDREJECTS = 10;
+    private static final long PROGRESSPERIODNANOS = 1_000_000_000L;
+
+    private static final int HEADERBYTESIZE = Protocol.IDENTITYBYTESIZE + Protocol.PUBLICSEEDBYTESIZE + Protocol.SALTBYTESIZE;
+
+    /**
+     * Records of one part of the file and their decoded verifiers, reused for further parts.
+     */
+    private static final class Batch {
+        private final ByteBuffer raw;
+        private final Polynomial[] vNtt;
+        /**
+         * Decoding error of each record, null if the record is valid.
+         */
+        private final String[] rejects;
+        private int count;
+        private long firstRecord;
+        private ForkJoinTask<?> decoding;
+
+        private Batch(int records, int recordByteSize, int n, BigInteger q) {
+            this.raw = ByteBuffer.allocate(records * recordByteSize);
+            this.vNtt = new Polynomial[records];
+            for (int i = 0; i < records; i++) {
+                vNtt[i] = new Polynomial(new int[n], q, Polynomial.Domain.NTT);  // decoded in coefficient domain, see DecodeTask
+            }
+            this.rejects = new String[records];
+        }
+    }
+
+    /**
+     * Marks the end of the file for the writer.
+     */
+    private static final Batch END = new Batch(0, 0, 0, BigInteger.ONE);
+
+    private final Path file;
+    private final VerifierStore verifiers;
+    private final ForkJoinPool pool;
+    private final Ntt ntt;
+    private final int recordByteSize;
+
+    private final BlockingQueue<Batch> free = new ArrayBlockingQueue<>(INFLIGHTBATCHES);
+    /**
+     * Batches in file order, their decoding may still run.
+     */
+    private final BlockingQueue<Batch> pending = new ArrayBlockingQueue<>(INFLIGHTBATCHES + 1);
+    /**
+     * Set by the writer, which then only recycles batches; the reader stops at the next batch.
+     */
+    private volatile Exception writeFailure;
+
+    private long totalRecords;
+    private long startNanos;
+    // written by the writer thread, read after it is joined
+    private long importedRecords;
+    private long rejectedRecords;
+    private long lastReportNanos;
+
+    /**
+     * verifiers must be the store of set.
+     */
+    VerifierImport(Path file, ParameterSet set, VerifierStore verifiers, int batchRecords, int parallelism) {
+        this.file = file;
+        this.verifiers = verifiers;
+        this.pool = new ForkJoinPool(parallelism);
+        this.ntt = new Ntt(set.n(), set.q());
+        this.recordByteSize = HEADERBYTESIZE + Polynomial.packedByteSize(set.n(), set.q());
+        for (int i = 0; i < INFLIGHTBATCHES; i++) {
+            free.add(new Batch(batchRecords, recordByteSize, set.n(), set.q()));
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String fileName = args.length > 0 ? args[0] : System.getProperty(FILE_PROPERTY);
+        if (fileName == null) {
+            System.err.println("[Import] Record file must be given as the first argument or by " + FILE_PROPERTY);
+            System.exit(1);
+        }
+        Path home = Path.of(System.getProperty("user.home"));
+        ParameterSet set = ParameterSet.parse(System.getProperty(SET_PROPERTY, ParameterSet.DEFAULT.name()));
+        Path verifiersFile = set.file(Path.of(System.getProperty(VERIFIERS_PROPERTY, home.resolve("verifiers").toString())));
+        int batchRecords = Integer.getInteger(BATCH_PROPERTY, 4096);
+        int parallelism = Integer.getInteger(PARALLELISM_PROPERTY, Runtime.getRuntime().availableProcessors());
+
+        try (VerifierStore verifiers = VerifierStore.open(verifiersFile, set.n(), set.q(), VERIFIERS_CACHE_CAPACITY)) {
+            System.out.println("[Import] " + fileName + " into " + verifiersFile + " (set " + set + "), batches of " + batchRecords
+                    + " records, parallelism " + parallelism);
+            VerifierImport verifierImport = new VerifierImport(Path.of(fileName), set, verifiers, batchRecords, parallelism);
+            verifierImport.run();
+            verifierImport.report();
+        }
+    }
+
+    /**
+     * Imports the whole file, returns when all valid records are in the store.
+     * @throws IOException if the file can not be read, its size is not a multiple of the record size,
+     * or the store fails; records of batches written before stay in the store
+     */
+    void run() throws IOException, InterruptedException {
+        Thread writer = Thread.ofPlatform().name("import-writer").start(this::write);
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (in.size() % recordByteSize != 0) {
+                throw new IOException("Size of " + file + " is not a multiple of the record size " + recordByteSize);
+            }
+            totalRecords = in.size() / recordByteSize;
+            startNanos = System.nanoTime();
+            lastReportNanos = startNanos;
+            long nextRecord = 0;
+            while (writeFailure == null) {
+                Batch batch = free.take();
+                batch.raw.clear();
+                while (batch.raw.hasRemaining() && in.read(batch.raw) >= 0) {
+                    // fill the whole batch, unless the file ends
+                }
+                batch.count = batch.raw.position() / recordByteSize;
+                if (batch.count == 0) {
+                    free.add(batch);
+                    break;
+                }
+                batch.raw.flip();
+                batch.firstRecord = nextRecord;
+                nextRecord += batch.count;
+                batch.decoding = pool.submit(new DecodeTask(ntt, recordByteSize, batch, 0, batch.count));
+                pending.put(batch);
+            }
+        } finally {
+            pending.put(END);
+            writer.join();
+            pool.shutdown();
+        }
+        if (writeFailure instanceof IOException e) {
+            throw e;
+        }
+        if (writeFailure != null) {
+            throw new IOException("Import failed", writeFailure);
+        }
+    }
+
+    /**
+     * Decodes records [from, to) of a batch, splitting the range while it is longer than SPLITRECORDS.
+     * Tasks only run on the pool, they are never serialized.
+     */
+    @SuppressWarnings("serial")
+    private static final class DecodeTask extends RecursiveAction {
+
+        private final Ntt ntt;
+        private final int recordByteSize;
+        private final Batch batch;
+        private final int from;
+        private final int to;
+
+        private DecodeTask(Ntt ntt, int recordByteSize, Batch batch, int from, int to) {
+            this.ntt = ntt;
+            this.recordByteSize = recordByteSize;
+            this.batch = batch;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > SPLITRECORDS) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new DecodeTask(ntt, recordByteSize, batch, from, middle),
+                        new DecodeTask(ntt, recordByteSize, batch, middle, to));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                Polynomial v = batch.vNtt[i];
+                v.setDomain(Polynomial.Domain.COEFFICIENT);
+                try {
+                    v.fromBytes(batch.raw.slice(i * recordByteSize + HEADERBYTESIZE, recordByteSize - HEADERBYTESIZE));
+                    ntt.nttForward(v);
+                    batch.rejects[i] = null;
+                } catch (IllegalArgumentException e) {
+                    batch.rejects[i] = e.getMessage();
+                }
+            }
+        }
+    }
+
+    /**
+     * Loop of the writer thread: appends decoded batches in file order and gives them back to the reader.
+     */
+    private void write() {
+        List<VerifierStore.Registration> registrations = new ArrayList<>();
+        try {
+            Batch batch;
+            while ((batch = pending.take()) != END) {
+                try {
+                    batch.decoding.join();
+                    if (writeFailure == null) {
+                        writeBatch(batch, registrations);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    writeFailure = e;
+                }
+                free.add(batch);
+            }
+        } catch (InterruptedException e) {
+            writeFailure = e;
+        }
+    }
+
+    private void writeBatch(Batch batch, List<VerifierStore.Registration> registrations) throws IOException {
+        registrations.clear();
+        for (int i = 0; i < batch.count; i++) {
+            if (batch.rejects[i] != null) {
+                if (rejectedRecords++ < MAXREPORTEDREJECTS) {
+                    System.err.println("[Import] Skipped record " + (batch.firstRecord + i) + ": " + batch.rejects[i]);
+                }
+                continue;
+            }
+            ByteBuffer header = batch.raw.slice(i * recordByteSize, HEADERBYTESIZE);
+            byte[] identity = new byte[Protocol.IDENTITYBYTESIZE];
+            header.get(identity);
+            byte[] publicSeed = new byte[Protocol.PUBLICSEEDBYTESIZE];
+            header.get(publicSeed);
+            byte[] salt = new byte[Protocol.SALTBYTESIZE];
+            header.get(salt);
+            registrations.add(new VerifierStore.Registration(identity, publicSeed, salt, batch.vNtt[i]));
+        }
+        verifiers.registerAll(registrations);
+        importedRecords += registrations.size();
+
+        long now = System.nanoTime();
+        if (now - lastReportNanos >= PROGRESSPERIODNANOS) {
+            lastReportNanos = now;
+            long done = batch.firstRecord + batch.count;
+            double seconds = (now - startNanos) / 1e9;
+            System.out.printf(Locale.ROOT, "[Import] %d / %d records (%.1f %%), %.0f records/s, %.1f MB/s%n",
+                    done, totalRecords, 100.0 * done / totalRecords, done / seconds, done * recordByteSize / seconds / 1e6);
+        }
+    }
+
+    void report() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        System.out.printf(Locale.ROOT, "[Import] %d records imported, %d skipped in %.1f s: %.0f records/s, %.1f MB/s%n",
+                importedRecords, rejectedRecords, seconds, (importedRecords + rejectedRecords) / seconds,
+                totalRecords * recordByteSize / seconds / 1e6);
+        System.out.println("[Import] Store holds " + verifiers.size() + " identities");
+    }
+}
@@ -0,0 +1,317 @@
+package protocol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Represents persistent store of verifiers registered by clients in phase0, keyed by the identity.
+ * <p>
+ * File is an append-only log of fixed-size records: identity, publicSeed, salt, bit-packed v (see class Polynomial)
+ * and CRC32 of everything before it in the record. It starts with a header: MAGIC, VERSION, n and q.
+ * File is memory-mapped in chunks of whole records, so reads and appends do not go through syscalls
+ * and the file can grow beyond 2 GiB (one MappedByteBuffer can not).
+ * When an identity registers again, the new record is appended and the old one is just no longer indexed.
+ * Bulk imports (see class VerifierImport) append whole batches by registerAll, flushed to the disk once per batch.
+ * File is locked while the store is open, so a server and an import can not append to it at the same time.
+ * <p>
+ * Lookups are O(1): in-memory hash index gives the record of an identity and an LRU cache holds decoded verifiers,
+ * so v of recently active users is neither parsed nor copied again. v is stored and cached in NTT form,
+ * exactly as the client sends it.
+ * At startup the whole log is scanned once to rebuild the index. Scan stops at the first record with wrong checksum,
+ * which is the record torn by a crash (or the zeroed unused rest of the last chunk); next append overwrites it.
+ * All methods are thread-safe.
+ * </p>
+ */
+final class VerifierStore implements Closeable {
+
+    private static final int MAGIC = 0x56524653;  // "VRFS"
+    private static final int VERSION = 1;
+    private static final int HEADERBYTESIZE = 16;
+    private static final int CRCBYTESIZE = 4;
+    private static final int CHUNKBYTESIZE = 1 << 24;
+
+    /**
+     * Immutable view of one registration. Arrays and polynomial are shared, they must not be modified.
+     */
+    record Verifier(byte[] publicSeed, byte[] salt, Polynomial vNtt) {
+    }
+
+    /**
+     * Cached verifier remembers its record, so it is not used after the identity registered again.
+     */
+    private record CacheEntry(int record, Verifier verifier) {
+    }
+
+    /**
+     * One registration of registerAll.
+     */
+    record Registration(byte[] identity, byte[] publicSeed, byte[] salt, Polynomial vNtt) {
+    }
+
+    private final int n;
+    private final BigInteger q;
+    private final int vByteSize;
+    private final int recordByteSize;
+    private final int recordsPerChunk;
+    private final FileChannel channel;
+
+    /**
+     * Replaced (never modified) when a chunk is added, so readers do not need any lock.
+     */
+    private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+    /**
+     * Number of valid records, guarded by this.
+     */
+    private int recordCount;
+    /**
+     * Identity (decoded as ISO-8859-1, so every byte array is a different key) to its newest record.
+     */
+    private final Map<String, Integer> index = new ConcurrentHashMap<>();
+    /**
+     * Access-ordered, guarded by itself.
+     */
+    private final LinkedHashMap<String, CacheEntry> cache;
+
+    private VerifierStore(FileChannel channel, int n, BigInteger q, int cacheCapacity) {
+        this.channel = channel;
+        this.n = n;
+        this.q = q;
+        this.vByteSize = Polynomial.packedByteSize(n, q);
+        this.recordByteSize = Protocol.IDENTITYBYTESIZE + Protocol.PUBLICSEEDBYTESIZE + Protocol.SALTBYTESIZE
+                + vByteSize + CRCBYTESIZE;
+        this.recordsPerChunk = Math.max(1, CHUNKBYTESIZE / recordByteSize);
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                return size() > cacheCapacity;
+            }
+        };
+    }
+
+    /**
+     * Opens the store in given file (creates it if it does not exist) and rebuilds the index from it.
+     * @param cacheCapacity maximal number of decoded verifiers kept in memory
+     * @throws IOException also if the file is not a verifier store or it was created for different n or q
+     */
+    static VerifierStore open(Path file, int n, BigInteger q, int cacheCapacity) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.tryLock() == null) {
+                throw new IOException("Verifier store is used by another process: " + file);
+            }
+            VerifierStore store = new VerifierStore(channel, n, q, cacheCapacity);
+            store.readOrWriteHeader(file);
+            store.recover();
+            return store;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void readOrWriteHeader(Path file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADERBYTESIZE);
+        if (channel.size() == 0) {
+            header.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(q.intValueExact()).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+            return;
+        }
+        while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+            // read the whole header
+        }
+        header.flip();
+        if (header.remaining() != HEADERBYTESIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException("Not a verifier store (or unsupported version): " + file);
+        }
+        int fileN = header.getInt();
+        int fileQ = header.getInt();
+        if (fileN != n || fileQ != q.intValueExact()) {
+            throw new IOException("Verifier store " + file + " was created for n = " + fileN + ", q = " + fileQ);
+        }
+    }
+
+    /**
+     * Rebuilds the index by scanning all records. Runs before the store is published, so it does not synchronize.
+     */
+    private void recover() throws IOException {
+        long fileRecords = (channel.size() - HEADERBYTESIZE) / recordByteSize;
+        CRC32 crc = new CRC32();
+        byte[] identity = new byte[Protocol.IDENTITYBYTESIZE];
+        for (int record = 0; record < fileRecords; record++) {
+            ByteBuffer buffer = recordBuffer(record);
+            crc.reset();
+            crc.update(buffer.slice(0, recordByteSize - CRCBYTESIZE));
+            if ((int) crc.getValue() != buffer.getInt(recordByteSize - CRCBYTESIZE)) {
+                break;
+            }
+            buffer.get(0, identity);
+            index.put(key(identity), record);
+            recordCount = record + 1;
+        }
+    }
+
+    private static String key(byte[] identity) {
+        return new String(identity, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns buffer with position 0 and limit recordByteSize over given record, mapping its chunk if needed.
+     */
+    private ByteBuffer recordBuffer(int record) throws IOException {
+        int chunk = record / recordsPerChunk;
+        MappedByteBuffer[] mapped = chunks;
+        if (chunk >= mapped.length) {
+            mapped = mapChunks(chunk + 1);
+        }
+        return mapped[chunk].slice((record % recordsPerChunk) * recordByteSize, recordByteSize);
+    }
+
+    private synchronized MappedByteBuffer[] mapChunks(int count) throws IOException {
+        MappedByteBuffer[] mapped = chunks;
+        if (mapped.length >= count) {
+            return mapped;  // mapped by another thread meanwhile
+        }
+        MappedByteBuffer[] grown = Arrays.copyOf(mapped, count);
+        long chunkByteSize = (long) recordsPerChunk * recordByteSize;
+        for (int i = mapped.length; i < count; i++) {
+            // mapping beyond the end of the file extends the file
+            grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADERBYTESIZE + i * chunkByteSize, chunkByteSize);
+        }
+        chunks = grown;
+        return grown;
+    }
+
+    /**
+     * Appends the registration to the log, flushes it to the disk and makes it the verifier of the identity.
+     * Arrays and vNtt must not be modified afterwards, they are cached as they are.
+     */
+    void register(byte[] identity, byte[] publicSeed, byte[] salt, Polynomial vNtt) throws IOException {
+        checkSizes(identity, publicSeed, salt, vNtt);
+        String key = key(identity);
+        int record;
+        synchronized (this) {
+            record = recordCount;
+            writeRecord(record, identity, publicSeed, salt, vNtt, new CRC32());
+            chunks[record / recordsPerChunk].force((record % recordsPerChunk) * recordByteSize, recordByteSize);
+            recordCount = record + 1;
+            index.put(key, record);
+        }
+        synchronized (cache) {
+            cache.put(key, new CacheEntry(record, new Verifier(publicSeed, salt, vNtt)));
+        }
+    }
+
+    /**
+     * Appends all registrations as consecutive records, flushes them to the disk at once and makes them
+     * the verifiers of their identities (later one wins, also within the list). Unlike register, verifiers are not
+     * cached, so an import does not evict the active users, and polynomials can be reused as soon as it returns.
+     */
+    void registerAll(List<Registration> registrations) throws IOException {
+        for (Registration registration : registrations) {
+            checkSizes(registration.identity(), registration.publicSeed(), registration.salt(), registration.vNtt());
+        }
+        if (registrations.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            int first = recordCount;
+            CRC32 crc = new CRC32();
+            for (int i = 0; i < registrations.size(); i++) {
+                Registration registration = registrations.get(i);
+                writeRecord(first + i, registration.identity(), registration.publicSeed(), registration.salt(),
+                        registration.vNtt(), crc);
+            }
+            int end = first + registrations.size();
+            for (int chunk = first / recordsPerChunk; chunk <= (end - 1) / recordsPerChunk; chunk++) {
+                int from = Math.max(first, chunk * recordsPerChunk) - chunk * recordsPerChunk;
+                int to = Math.min(end, (chunk + 1) * recordsPerChunk) - chunk * recordsPerChunk;
+                chunks[chunk].force(from * recordByteSize, (to - from) * recordByteSize);
+            }
+            recordCount = end;
+            // only after the flush, so lookups never see a record which could be lost by a crash
+            for (int i = 0; i < registrations.size(); i++) {
+                index.put(key(registrations.get(i).identity()), first + i);
+            }
+        }
+    }
+
+    private void checkSizes(byte[] identity, byte[] publicSeed, byte[] salt, Polynomial vNtt) {
+        if (identity.length != Protocol.IDENTITYBYTESIZE || publicSeed.length != Protocol.PUBLICSEEDBYTESIZE
+                || salt.length != Protocol.SALTBYTESIZE || vNtt.packedByteSize() != vByteSize) {
+            throw new IllegalArgumentException("Registration does not match sizes of this store");
+        }
+    }
+
+    /**
+     * Writes the record including its checksum, caller holds the lock of this.
+     */
+    private void writeRecord(int record, byte[] identity, byte[] publicSeed, byte[] salt, Polynomial vNtt, CRC32 crc)
+            throws IOException {
+        ByteBuffer buffer = recordBuffer(record);
+        buffer.put(identity).put(publicSeed).put(salt);
+        vNtt.toBytes(buffer);
+        crc.reset();
+        crc.update(buffer.slice(0, recordByteSize - CRCBYTESIZE));
+        buffer.putInt((int) crc.getValue());
+    }
+
+    /**
+     * Returns the newest verifier of the identity or null if the identity never registered.
+     */
+    Verifier lookup(byte[] identity) throws IOException {
+        String key = key(identity);
+        Integer record = index.get(key);
+        if (record == null) {
+            return null;
+        }
+        synchronized (cache) {
+            CacheEntry cached = cache.get(key);
+            if (cached != null && cached.record() == record) {
+                return cached.verifier();
+            }
+        }
+        ByteBuffer buffer = recordBuffer(record);
+        buffer.position(Protocol.IDENTITYBYTESIZE);
+        byte[] publicSeed = new byte[Protocol.PUBLICSEEDBYTESIZE];
+        buffer.get(publicSeed);
+        byte[] salt = new byte[Protocol.SALTBYTESIZE];
+        buffer.get(salt);
+        Verifier verifier = new Verifier(publicSeed, salt, Polynomial.fromBytes(buffer, n, q, Polynomial.Domain.NTT));
+        synchronized (cache) {
+            // do not replace the entry of a registration which came meanwhile
+            CacheEntry cached = cache.get(key);
+            if (cached == null || cached.record() < record) {
+                cache.put(key, new CacheEntry(record, verifier));
+            }
+        }
+        return verifier;
+    }
+
+    int size() {
+        return index.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+        channel.close();
+    }
+}
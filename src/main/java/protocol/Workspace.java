@@ -0,0 +1,50 @@
+package protocol;
+
+import java.math.BigInteger;
+
+/**
+ * Represents preallocated scratch memory of one running phase.
+ * <p>
+ * All polynomials and byte buffers needed by phase1 and phase2 are allocated once and then reused
+ * by allocation-free operations of Ntt and Mlkem, so the hot path does not allocate anything.
+ * A session borrows a workspace from WorkspacePool only for the duration of one phase.
+ * Workspace is not thread-safe, it must be used only by the thread which borrowed it.
+ * </p>
+ */
+class Workspace {
+
+    static final int NOISESEEDBYTESIZE = 34;
+    /**
+     * How many noise polynomials can be sampled by one batched PRF call (see Engine.prf).
+     */
+    static final int NOISEPOLYNOMIALS = ParallelShake.DEFAULTLANES;
+
+    /**
+     * Used only when EphemeralPool has no ready pair.
+     */
+    final EphemeralPool.Ephemeral ephemeral;
+    /**
+     * Copy of a from UniformPolynomialCache.
+     */
+    final Polynomial aNtt;
+    final Polynomial piNtt;
+
+    /**
+     * Output of XOF from which the uniform polynomial is sampled (when it is not in UniformPolynomialCache).
+     */
+    final byte[] xofBuffer;
+    /**
+     * Outputs of PRF from which noise polynomials are sampled, one per polynomial.
+     */
+    final byte[][] noiseBuffers;
+    final byte[][] noiseSeeds;
+
+    Workspace(int n, BigInteger q, int eta, Mlkem mlkem, Engine engine) {
+        this.ephemeral = new EphemeralPool.Ephemeral(n, q);
+        this.aNtt = new Polynomial(new int[n], q, Polynomial.Domain.NTT);
+        this.piNtt = new Polynomial(new int[n], q, Polynomial.Domain.NTT);
+        this.xofBuffer = new byte[mlkem.uniformBufferSize(engine)];
+        this.noiseBuffers = new byte[NOISEPOLYNOMIALS][n * eta / 4];
+        this.noiseSeeds = new byte[NOISEPOLYNOMIALS][NOISESEEDBYTESIZE];
+    }
+}
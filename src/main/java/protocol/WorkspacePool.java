@@ -0,0 +1,61 @@
+package protocol;
+
+import java.math.BigInteger;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Represents a pool of Workspaces of one parameter set shared by all sessions.
+ * <p>
+ * A session holds a workspace only while one of its phases is running, so the number of workspaces follows
+ * the number of concurrently computing sessions (about the number of cores), not the number of connected ones.
+ * Workspaces are created when the pool is empty; at most maxIdle of them are kept for reuse, the rest
+ * are left to the GC. All methods are thread-safe.
+ * </p>
+ */
+final class WorkspacePool {
+
+    private final int n;
+    private final BigInteger q;
+    private final int eta;
+    private final Mlkem mlkem;
+    private final int maxIdle;
+
+    private final Queue<Workspace> idle = new ConcurrentLinkedQueue<>();
+    /**
+     * Size of idle, ConcurrentLinkedQueue.size() is not constant-time.
+     */
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    WorkspacePool(int n, BigInteger q, int eta, int maxIdle) {
+        this.n = n;
+        this.q = q;
+        this.eta = eta;
+        this.mlkem = new Mlkem(n, q);
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Returns an idle workspace, or a new one sized for engine (see Mlkem.uniformBufferSize).
+     */
+    Workspace acquire(Engine engine) {
+        Workspace workspace = idle.poll();
+        if (workspace == null) {
+            return new Workspace(n, q, eta, mlkem, engine);
+        }
+        idleCount.decrementAndGet();
+        return workspace;
+    }
+
+    /**
+     * Gives the workspace back, its content is not cleared.
+     */
+    void release(Workspace workspace) {
+        if (idleCount.incrementAndGet() <= maxIdle) {
+            idle.offer(workspace);
+        } else {
+            idleCount.decrementAndGet();
+        }
+    }
+}
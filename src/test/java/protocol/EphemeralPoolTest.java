@@ -0,0 +1,50 @@
+package protocol;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Producers of EphemeralPool start only when pairs are needed, and no secret outlives its use or the pool.
+ */
+class EphemeralPoolTest {
+
+    private static final ParameterSet SET = ParameterSet.N512;
+    private static final long TIMEOUT_NANOS = 10_000_000_000L;
+
+    @Test
+    void producersStartOnFirstPollAndCloseDropsPairs() throws InterruptedException {
+        EphemeralPool pool = new EphemeralPool(SET.n(), SET.q(), SET.eta(), 1, 2, 4);
+        try {
+            Thread.sleep(50);
+            assertEquals(0, pool.getProduced());
+            EphemeralPool.Ephemeral first = pool.poll();  // starts the producer, which may already have a pair
+            if (first != null) {
+                first.clear();
+            }
+            long deadline = System.nanoTime() + TIMEOUT_NANOS;
+            while (pool.depth() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertTrue(pool.depth() > 0);
+        } finally {
+            pool.close();
+        }
+        assertEquals(0, pool.depth());
+        assertNull(pool.poll());
+    }
+
+    @Test
+    void clearZeroesBothSecrets() {
+        EphemeralPool pool = new EphemeralPool(SET.n(), SET.q(), SET.eta(), 0, 0, 0);
+        EphemeralPool.Ephemeral ephemeral = new EphemeralPool.Ephemeral(SET.n(), SET.q());
+        pool.generate(new Engine(), new byte[4][Workspace.NOISESEEDBYTESIZE], new byte[4][SET.n() * SET.eta() / 4],
+                ephemeral, null);
+        ephemeral.clear();
+        assertArrayEquals(new int[SET.n()], ephemeral.s1Ntt().getCoeffs());
+        assertArrayEquals(new int[SET.n()], ephemeral.e1Ntt().getCoeffs());
+    }
+}
@@ -0,0 +1,135 @@
+package protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Cross-checks the branchless polynomial versions of Magic with its per-coefficient BigInteger functions,
+ * for every coefficient of random polynomials which also contain all values around q/4, q/2 and 3q/4.
+ */
+class MagicTest {
+
+    /**
+     * Not a multiple of 64, so the last word of every bitset is only partially used.
+     */
+    private static final int SHORTN = 100;
+
+    private final Random random = new Random(1);
+    private final Engine engine = new Engine();
+
+    @Test
+    void hintPolynomialMatchesHintFunction() {
+        for (BigInteger q : moduli()) {
+            Magic magic = new Magic(q);
+            for (int n : new int[]{ParameterSet.DEFAULT.n(), SHORTN}) {
+                Polynomial x = polynomialWithBoundaries(q, n);
+                for (long[] b : bitsets(n)) {
+                    long[] hints = new long[Magic.bitsetLength(n)];
+                    magic.hintPolynomial(x, b, hints);
+                    for (int i = 0; i < n; i++) {
+                        int c = x.getCoeffs()[i];
+                        assertEquals(magic.hintFunction(BigInteger.valueOf(c), bit(b, i)), bit(hints, i),
+                                "q = " + q + ", x = " + c + ", b = " + bit(b, i));
+                    }
+                    assertUnusedBitsAreZero(hints, n);
+                }
+            }
+        }
+    }
+
+    @Test
+    void signalPolynomialMatchesHintFunctionOfItsRandomBits() {
+        for (BigInteger q : moduli()) {
+            Magic magic = new Magic(q);
+            Polynomial y = polynomialWithBoundaries(q, SHORTN);
+            long[] randomBits = new long[Magic.bitsetLength(SHORTN)];
+            long[] hints = new long[Magic.bitsetLength(SHORTN)];
+            magic.signalPolynomial(engine, y, randomBits, hints);
+            for (int i = 0; i < SHORTN; i++) {
+                int c = y.getCoeffs()[i];
+                assertEquals(magic.hintFunction(BigInteger.valueOf(c), bit(randomBits, i)), bit(hints, i),
+                        "q = " + q + ", y = " + c);
+            }
+            assertUnusedBitsAreZero(hints, SHORTN);
+        }
+    }
+
+    @Test
+    void robustExtractorPolynomialMatchesRobustExtractor() {
+        for (BigInteger q : moduli()) {
+            Magic magic = new Magic(q);
+            for (int n : new int[]{ParameterSet.DEFAULT.n(), SHORTN}) {
+                Polynomial x = polynomialWithBoundaries(q, n);
+                for (long[] hints : bitsets(n)) {
+                    long[] key = new long[Magic.bitsetLength(n)];
+                    magic.robustExtractorPolynomial(x, hints, key);
+                    for (int i = 0; i < n; i++) {
+                        int c = x.getCoeffs()[i];
+                        assertEquals(magic.robustExtractor(BigInteger.valueOf(c), bit(hints, i)), bit(key, i),
+                                "q = " + q + ", x = " + c + ", w = " + bit(hints, i));
+                    }
+                    assertUnusedBitsAreZero(key, n);
+                }
+            }
+        }
+    }
+
+    /**
+     * Moduli of all parameter sets, without repetition.
+     */
+    private static BigInteger[] moduli() {
+        return Arrays.stream(ParameterSet.values()).map(ParameterSet::q).distinct().toArray(BigInteger[]::new);
+    }
+
+    /**
+     * First coefficients are the boundaries (and their neighbours) of the intervals used by Magic, the rest is random.
+     */
+    private Polynomial polynomialWithBoundaries(BigInteger q, int n) {
+        int qInt = q.intValueExact();
+        int quarter = qInt / 4;
+        int half = (qInt - 1) / 2;
+        int[] boundaries = {0, quarter, quarter + 1, half, half + 1, qInt - quarter, qInt - quarter - 1, qInt - 1};
+        int[] coeffs = new int[n];
+        int i = 0;
+        for (int boundary : boundaries) {
+            for (int delta = -2; delta <= 2; delta++) {
+                coeffs[i++] = Math.floorMod(boundary + delta, qInt);
+            }
+        }
+        while (i < n) {
+            coeffs[i++] = random.nextInt(qInt);
+        }
+        return new Polynomial(coeffs, q);
+    }
+
+    /**
+     * All zeros, all ones (only in used bits) and random bits.
+     */
+    private long[][] bitsets(int n) {
+        int length = Magic.bitsetLength(n);
+        long[] zeros = new long[length];
+        long[] ones = new long[length];
+        Arrays.fill(ones, -1L);
+        long[] randomBits = new long[length];
+        for (int i = 0; i < length; i++) {
+            randomBits[i] = random.nextLong();
+        }
+        return new long[][]{zeros, ones, randomBits};
+    }
+
+    private static int bit(long[] bitset, int i) {
+        return (int) (bitset[i / Long.SIZE] >>> (i % Long.SIZE)) & 1;
+    }
+
+    private static void assertUnusedBitsAreZero(long[] bitset, int n) {
+        int used = n % Long.SIZE;
+        if (used != 0) {
+            assertEquals(0, bitset[bitset.length - 1] >>> used, "unused bits of the last word");
+        }
+    }
+}
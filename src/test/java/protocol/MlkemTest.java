@@ -0,0 +1,86 @@
+package protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks samplers of Mlkem: fast paths of the centered binomial distribution against a bit-by-bit reference,
+ * and uniform sampling against q.
+ */
+class MlkemTest {
+
+    private final Random random = new Random(1);
+
+    @Test
+    void cbdMatchesBitwiseReference() {
+        for (ParameterSet set : ParameterSet.values()) {
+            Mlkem mlkem = new Mlkem(set.n(), set.q());
+            for (int eta = 1; eta <= 6; eta++) {
+                byte[] bytes = new byte[set.n() * eta / 4];
+                random.nextBytes(bytes);
+                Polynomial r = new Polynomial(new int[set.n()], set.q(), Polynomial.Domain.NTT);
+                mlkem.generateCbdPolynomial(r, bytes, eta);
+                assertTrue(r.getDomain() == Polynomial.Domain.COEFFICIENT, set + " eta " + eta + " domain");
+                assertArrayEquals(cbdReference(bytes, set.n(), set.q(), eta), r.getCoeffs(), set + " eta " + eta);
+            }
+        }
+    }
+
+    @Test
+    void cbdExtremes() {
+        ParameterSet set = ParameterSet.DEFAULT;
+        Mlkem mlkem = new Mlkem(set.n(), set.q());
+        for (int eta = 2; eta <= 4; eta++) {
+            byte[] bytes = new byte[set.n() * eta / 4];
+            Polynomial r = new Polynomial(new int[set.n()], set.q());
+            for (int b : new int[]{0x00, 0xFF, 0x0F, 0xF0, 0x55, 0xAA}) {
+                Arrays.fill(bytes, (byte) b);
+                mlkem.generateCbdPolynomial(r, bytes, eta);
+                assertArrayEquals(cbdReference(bytes, set.n(), set.q(), eta), r.getCoeffs(),
+                        "eta " + eta + " bytes " + Integer.toHexString(b));
+            }
+        }
+    }
+
+    @Test
+    void uniformPolynomialIsReduced() {
+        for (ParameterSet set : ParameterSet.values()) {
+            Mlkem mlkem = new Mlkem(set.n(), set.q());
+            Engine engine = new Engine();
+            byte[] seed = new byte[Protocol.PUBLICSEEDBYTESIZE];
+            random.nextBytes(seed);
+            Polynomial a = new Polynomial(new int[set.n()], set.q());
+            mlkem.generateUniformPolynomialNtt(engine, a, seed);
+            assertTrue(a.getDomain() == Polynomial.Domain.NTT, set + " domain");
+            int q = set.q().intValueExact();
+            for (int coeff : a.getCoeffs()) {
+                assertTrue(coeff >= 0 && coeff < q, set + " coefficient " + coeff);
+            }
+        }
+    }
+
+    /**
+     * Coefficient i is (sum of bits 2 * eta * i .. + eta - 1) - (sum of the next eta bits), bits little-endian.
+     */
+    private static int[] cbdReference(byte[] bytes, int n, BigInteger q, int eta) {
+        int[] coeffs = new int[n];
+        for (int i = 0; i < n; i++) {
+            int sum = 0;
+            for (int j = 0; j < eta; j++) {
+                sum += bit(bytes, 2 * eta * i + j) - bit(bytes, 2 * eta * i + eta + j);
+            }
+            coeffs[i] = BigInteger.valueOf(sum).mod(q).intValueExact();
+        }
+        return coeffs;
+    }
+
+    private static int bit(byte[] bytes, int index) {
+        return (bytes[index >>> 3] >>> (index & 7)) & 1;
+    }
+}
@@ -0,0 +1,60 @@
+package protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.function.UnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Saving and loading of NttTables, a damaged file must be recomputed and overwritten instead of failing the start.
+ */
+class NttTablesTest {
+
+    private static final ParameterSet SET = ParameterSet.N512;
+
+    @Test
+    void savedTablesAreLoaded() throws IOException {
+        Path file = Files.createTempFile("ntt-tables", ".bin");
+        try {
+            NttTables.get(SET.n(), SET.q()).save(file);
+            NttTables loaded = NttTables.load(file);
+            assertEquals(SET.n(), loaded.getN());
+            assertEquals(SET.q(), loaded.getQ());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void truncatedFileIsOverwritten() throws IOException {
+        assertDamagedFileIsOverwritten(bytes -> Arrays.copyOf(bytes, bytes.length / 2));
+    }
+
+    @Test
+    void corruptedFileIsOverwritten() throws IOException {
+        assertDamagedFileIsOverwritten(bytes -> {
+            bytes[bytes.length / 2] ^= 1;
+            return bytes;
+        });
+    }
+
+    private static void assertDamagedFileIsOverwritten(UnaryOperator<byte[]> damage) throws IOException {
+        Path file = Files.createTempFile("ntt-tables", ".bin");
+        try {
+            NttTables.get(SET.n(), SET.q()).save(file);
+            byte[] saved = Files.readAllBytes(file);
+            Files.write(file, damage.apply(saved.clone()));
+            NttTables tables = NttTables.loadOrCompute(file, SET.n(), SET.q());
+            assertEquals(SET.n(), tables.getN());
+            assertArrayEquals(saved, Files.readAllBytes(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
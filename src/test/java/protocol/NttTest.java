@@ -0,0 +1,128 @@
+package protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Cross-checks Montgomery arithmetic of Ntt (and its SIMD backend, unless -Dprotocol.ntt.vector=false)
+ * with the BigInteger implementation in class NttReference, for every parameter set.
+ */
+class NttTest {
+
+    private final Random random = new Random(1);
+
+    @Test
+    void forwardTransformMatchesReference() {
+        for (ParameterSet set : ParameterSet.values()) {
+            Ntt ntt = new Ntt(set.n(), set.q());
+            NttReference reference = new NttReference(set.n(), set.q());
+            Polynomial poly = randomPolynomial(set, Polynomial.Domain.COEFFICIENT);
+            assertArrayEquals(reference.convertToNtt(poly.toBigIntegers()), ntt.convertToNtt(poly).toBigIntegers(),
+                    set.toString());
+        }
+    }
+
+    @Test
+    void inverseTransformMatchesReference() {
+        for (ParameterSet set : ParameterSet.values()) {
+            Ntt ntt = new Ntt(set.n(), set.q());
+            NttReference reference = new NttReference(set.n(), set.q());
+            Polynomial polyNtt = randomPolynomial(set, Polynomial.Domain.NTT);
+            assertArrayEquals(reference.convertFromNtt(polyNtt.toBigIntegers()), ntt.convertFromNtt(polyNtt).toBigIntegers(),
+                    set.toString());
+        }
+    }
+
+    @Test
+    void transformsAreInverse() {
+        for (ParameterSet set : ParameterSet.values()) {
+            Ntt ntt = new Ntt(set.n(), set.q());
+            Polynomial poly = randomPolynomial(set, Polynomial.Domain.COEFFICIENT);
+            int[] original = poly.getCoeffs().clone();
+            ntt.nttForward(poly);
+            ntt.nttInverse(poly);
+            assertArrayEquals(original, poly.getCoeffs(), set.toString());
+        }
+    }
+
+    @Test
+    void pointwiseOperationsMatchReference() {
+        for (ParameterSet set : ParameterSet.values()) {
+            Ntt ntt = new Ntt(set.n(), set.q());
+            NttReference reference = new NttReference(set.n(), set.q());
+            Polynomial a = randomPolynomial(set, Polynomial.Domain.NTT);
+            Polynomial b = randomPolynomial(set, Polynomial.Domain.NTT);
+            BigInteger[] aBig = a.toBigIntegers();
+            BigInteger[] bBig = b.toBigIntegers();
+            assertArrayEquals(reference.add(aBig, bBig), ntt.add(a, b).toBigIntegers(), set + " add");
+            assertArrayEquals(reference.sub(aBig, bBig), ntt.sub(a, b).toBigIntegers(), set + " sub");
+            assertArrayEquals(reference.inverse(aBig), ntt.inverse(a).toBigIntegers(), set + " inverse");
+            assertArrayEquals(reference.multiplyNttPolys(aBig, bBig), ntt.multiplyNttPolys(a, b).toBigIntegers(),
+                    set + " multiply");
+        }
+    }
+
+    @Test
+    void fusedOperationsMatchReference() {
+        for (ParameterSet set : ParameterSet.values()) {
+            Ntt ntt = new Ntt(set.n(), set.q());
+            NttReference reference = new NttReference(set.n(), set.q());
+            Polynomial a = randomPolynomial(set, Polynomial.Domain.NTT);
+            Polynomial s = randomPolynomial(set, Polynomial.Domain.NTT);
+            Polynomial e = randomPolynomial(set, Polynomial.Domain.NTT);
+            for (int c : new int[]{0, 1, 2, 3, 12345}) {
+                BigInteger[] cBig = new BigInteger[set.n()];
+                Arrays.fill(cBig, BigInteger.valueOf(c));
+                BigInteger[] ce = reference.multiplyNttPolys(cBig, e.toBigIntegers());
+                BigInteger[] expected = reference.add(reference.multiplyNttPolys(a.toBigIntegers(), s.toBigIntegers()), ce);
+
+                Polynomial dst = new Polynomial(new int[set.n()], set.q(), Polynomial.Domain.NTT);
+                ntt.multiplyAddScaled(dst, a, s, c, e);
+                assertArrayEquals(expected, dst.toBigIntegers(), set + " multiplyAddScaled c = " + c);
+                ntt.multiplyScalar(dst, e, c);
+                assertArrayEquals(ce, dst.toBigIntegers(), set + " multiplyScalar c = " + c);
+            }
+        }
+    }
+
+    @Test
+    void operandInWrongDomainIsRejectedUntouched() {
+        ParameterSet set = ParameterSet.N512;
+        Ntt ntt = new Ntt(set.n(), set.q());
+        Polynomial a = randomPolynomial(set, Polynomial.Domain.NTT);
+        Polynomial c = randomPolynomial(set, Polynomial.Domain.COEFFICIENT);
+        int[] original = c.getCoeffs().clone();
+        int[] originalNtt = a.getCoeffs().clone();
+        Polynomial dst = new Polynomial(new int[set.n()], set.q(), Polynomial.Domain.NTT);
+        assertThrows(IllegalStateException.class, () -> ntt.add(dst, a, c));
+        assertThrows(IllegalStateException.class, () -> ntt.sub(dst, c, a));
+        assertThrows(IllegalStateException.class, () -> ntt.multiplyNttPolys(dst, a, c));
+        assertThrows(IllegalStateException.class, () -> ntt.multiplyAddScaled(dst, a, a, 2, c));
+        assertThrows(IllegalStateException.class, () -> ntt.convertFromNtt(c));
+        assertThrows(IllegalStateException.class, () -> ntt.nttInverse(c));
+        assertThrows(IllegalStateException.class, () -> ntt.convertToNtt(a));
+        assertThrows(IllegalStateException.class, () -> ntt.nttForward(a));
+        assertEquals(Polynomial.Domain.COEFFICIENT, c.getDomain());
+        assertArrayEquals(original, c.getCoeffs());
+        assertEquals(Polynomial.Domain.NTT, a.getDomain());
+        assertArrayEquals(originalNtt, a.getCoeffs());
+    }
+
+    private Polynomial randomPolynomial(ParameterSet set, Polynomial.Domain domain) {
+        int q = set.q().intValueExact();
+        int[] coeffs = new int[set.n()];
+        for (int i = 0; i < coeffs.length; i++) {
+            coeffs[i] = random.nextInt(q);
+        }
+        coeffs[0] = 0;
+        coeffs[1] = q - 1;  // extremes, which overflow first
+        return new Polynomial(coeffs, set.q(), domain);
+    }
+}
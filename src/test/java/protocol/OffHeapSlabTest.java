@@ -0,0 +1,25 @@
+package protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Released slots of OffHeapSlab must not leak the secrets of the previous session.
+ */
+class OffHeapSlabTest {
+
+    @Test
+    void releasedSlotIsZeroed() {
+        OffHeapSlab slab = new OffHeapSlab(Protocol.offHeapStateByteSize(ParameterSet.N512.n()));
+        MemorySegment slot = slab.acquire();
+        slot.fill((byte) 0x5A);
+        slab.release(slot);
+        for (long offset = 0; offset < slot.byteSize(); offset++) {
+            assertEquals(0, slot.get(ValueLayout.JAVA_BYTE, offset), "byte " + offset);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package protocol;
+
+import org.bouncycastle.crypto.digests.SHAKEDigest;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * Cross-checks ParallelShake (with VectorKeccak when 4 lanes are used, unless -Dprotocol.keccak.vector=false)
+ * with Bouncy Castle SHAKEDigest.
+ */
+class ParallelShakeTest {
+
+    // around the rates of SHAKE256 (136 bytes) and SHAKE128 (168 bytes), so padding falls everywhere
+    private static final int[] LENGTHS = {0, 1, 32, 135, 136, 137, 167, 168, 169, 500};
+
+    private final Random random = new Random(1);
+
+    @Test
+    void shake128MatchesBouncyCastle() {
+        for (int lanes : new int[]{1, ParallelShake.DEFAULTLANES}) {
+            check(ParallelShake.shake128(lanes), 128);
+        }
+    }
+
+    @Test
+    void shake256MatchesBouncyCastle() {
+        for (int lanes : new int[]{1, ParallelShake.DEFAULTLANES}) {
+            check(ParallelShake.shake256(lanes), 256);
+        }
+    }
+
+    @Test
+    void unusedLanesAreNotWritten() {
+        ParallelShake shake = ParallelShake.shake256(ParallelShake.DEFAULTLANES);
+        byte[][] inputs = randomInputs(ParallelShake.DEFAULTLANES, 64);
+        byte[][] outputs = new byte[ParallelShake.DEFAULTLANES][100];
+        shake.digest(inputs, 64, outputs, 100, 1, 2);
+        assertArrayEquals(new byte[100], outputs[0]);
+        assertArrayEquals(expected(256, inputs[1], 64, 100), outputs[1]);
+        assertArrayEquals(expected(256, inputs[2], 64, 100), outputs[2]);
+        assertArrayEquals(new byte[100], outputs[3]);
+    }
+
+    private void check(ParallelShake shake, int securityBits) {
+        int lanes = shake.lanes();
+        for (int inLen : LENGTHS) {
+            for (int outLen : LENGTHS) {
+                byte[][] inputs = randomInputs(lanes, inLen + 3);  // longer than inLen, the rest must be ignored
+                byte[][] outputs = new byte[lanes][outLen];
+                shake.digest(inputs, inLen, outputs, outLen, 0, lanes);
+                for (int l = 0; l < lanes; l++) {
+                    assertArrayEquals(expected(securityBits, inputs[l], inLen, outLen), outputs[l],
+                            "SHAKE" + securityBits + " lanes " + lanes + " lane " + l + " in " + inLen + " out " + outLen);
+                }
+            }
+        }
+    }
+
+    private byte[][] randomInputs(int count, int length) {
+        byte[][] inputs = new byte[count][length];
+        for (byte[] input : inputs) {
+            random.nextBytes(input);
+        }
+        return inputs;
+    }
+
+    private static byte[] expected(int securityBits, byte[] input, int inLen, int outLen) {
+        SHAKEDigest digest = new SHAKEDigest(securityBits);
+        digest.update(input, 0, inLen);
+        byte[] output = new byte[outLen];
+        digest.doFinal(output, 0, outLen);
+        return output;
+    }
+}
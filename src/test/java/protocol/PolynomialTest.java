@@ -0,0 +1,111 @@
+package protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks the bit-packed wire format of Polynomial and OffHeapPolynomial, on heap and direct buffers.
+ */
+class PolynomialTest {
+
+    private final Random random = new Random(1);
+
+    @Test
+    void packingRoundTrips() {
+        for (ParameterSet set : ParameterSet.values()) {
+            Polynomial poly = randomPolynomial(set);
+            for (ByteBuffer buffer : buffers(poly.packedByteSize())) {
+                poly.toBytes(buffer);
+                assertEquals(poly.packedByteSize(), buffer.position(), set + " written bytes");
+                buffer.flip();
+                Polynomial decoded = Polynomial.fromBytes(buffer, set.n(), set.q(), Polynomial.Domain.NTT);
+                assertEquals(0, buffer.remaining(), set + " read bytes");
+                assertArrayEquals(poly.getCoeffs(), decoded.getCoeffs(), set + " direct " + buffer.isDirect());
+            }
+            assertArrayEquals(poly.toBytes(), encode(poly, ByteBuffer.allocateDirect(poly.packedByteSize())), set.toString());
+        }
+    }
+
+    @Test
+    void packingIsMostSignificantBitFirst() {
+        ParameterSet set = ParameterSet.DEFAULT;
+        int[] coeffs = new int[set.n()];
+        coeffs[0] = 1 << 29;  // highest of the 30 bits
+        coeffs[set.n() - 1] = 1;  // lowest bit, 1024 * 30 bits fill the last byte exactly
+        byte[] packed = new Polynomial(coeffs, set.q()).toBytes();
+        assertEquals(Polynomial.packedByteSize(set.n(), set.q()), packed.length);
+        assertEquals((byte) 0x80, packed[0]);
+        assertEquals((byte) 0x01, packed[packed.length - 1]);
+    }
+
+    @Test
+    void offHeapPolynomialMatchesOnHeap() {
+        for (ParameterSet set : ParameterSet.values()) {
+            try (Arena arena = Arena.ofConfined()) {
+                OffHeapPolynomial offHeap = new OffHeapPolynomial(arena.allocate(OffHeapPolynomial.byteSize(set.n())),
+                        set.n(), set.q());
+                Polynomial poly = randomPolynomial(set);
+                offHeap.store(poly);
+                assertEquals(poly.packedByteSize(), offHeap.packedByteSize());
+                for (ByteBuffer buffer : buffers(offHeap.packedByteSize())) {
+                    offHeap.toBytes(buffer);
+                    assertArrayEquals(poly.toBytes(), bytes(buffer.flip()), set + " direct " + buffer.isDirect());
+                }
+
+                offHeap.fromBytes(ByteBuffer.wrap(poly.toBytes()), Polynomial.Domain.COEFFICIENT);
+                Polynomial loaded = new Polynomial(new int[set.n()], set.q(), Polynomial.Domain.NTT);
+                offHeap.load(loaded);
+                assertArrayEquals(poly.getCoeffs(), loaded.getCoeffs(), set.toString());
+                assertEquals(Polynomial.Domain.COEFFICIENT, loaded.getDomain());
+            }
+        }
+    }
+
+    @Test
+    void unreducedCoefficientIsRejected() {
+        ParameterSet set = ParameterSet.DEFAULT;
+        int[] coeffs = new int[set.n()];
+        coeffs[7] = (1 << 30) - 1;  // fits into 30 bits, but not below q
+        byte[] packed = new Polynomial(coeffs, set.q()).toBytes();
+        assertThrows(IllegalArgumentException.class,
+                () -> Polynomial.fromBytes(ByteBuffer.wrap(packed), set.n(), set.q(), Polynomial.Domain.NTT));
+        try (Arena arena = Arena.ofConfined()) {
+            OffHeapPolynomial offHeap = new OffHeapPolynomial(arena.allocate(OffHeapPolynomial.byteSize(set.n())),
+                    set.n(), set.q());
+            assertThrows(IllegalArgumentException.class,
+                    () -> offHeap.fromBytes(ByteBuffer.wrap(packed), Polynomial.Domain.NTT));
+        }
+    }
+
+    private Polynomial randomPolynomial(ParameterSet set) {
+        int q = set.q().intValueExact();
+        int[] coeffs = new int[set.n()];
+        for (int i = 0; i < coeffs.length; i++) {
+            coeffs[i] = random.nextInt(q);
+        }
+        coeffs[0] = q - 1;
+        return new Polynomial(coeffs, set.q());
+    }
+
+    private static ByteBuffer[] buffers(int capacity) {
+        return new ByteBuffer[]{ByteBuffer.allocate(capacity), ByteBuffer.allocateDirect(capacity)};
+    }
+
+    private static byte[] encode(Polynomial poly, ByteBuffer buffer) {
+        poly.toBytes(buffer);
+        return bytes(buffer.flip());
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] result = new byte[buffer.remaining()];
+        buffer.get(result);
+        return result;
+    }
+}
@@ -0,0 +1,62 @@
+package protocol;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Protocol of a ParameterSuite, without a server.
+ */
+class ProtocolTest {
+
+    private static final byte[] IDENTITY = "user0000001".getBytes(StandardCharsets.US_ASCII);
+
+    private Path directory;
+    private VerifierStore verifiers;
+    private ParameterSuite suite;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("protocol-test");
+        verifiers = VerifierStore.open(directory.resolve("verifiers"), ParameterSet.N512.n(), ParameterSet.N512.q(), 1);
+        suite = new ParameterSuite(ParameterSet.N512, verifiers);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        suite.close();
+        verifiers.close();
+        try (var files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    void phase0RegistersVerifier() throws IOException {
+        try (Protocol protocol = suite.newProtocol()) {
+            ByteBuffer message = ByteBuffer.allocate(protocol.phase0MessageSize());
+            message.put(new byte[Protocol.PUBLICSEEDBYTESIZE]).put(IDENTITY).put(new byte[Protocol.SALTBYTESIZE]);
+            message.position(message.limit()).flip();  // v = 0
+            protocol.phase0(message);
+        }
+        assertEquals(1, verifiers.size());
+    }
+
+    @Test
+    void openSuiteIsReportedInMetrics() {
+        assertTrue(Metrics.shared().dump().contains("N512 uniform a cached="));
+    }
+}
+
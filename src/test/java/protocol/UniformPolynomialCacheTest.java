@@ -0,0 +1,67 @@
+package protocol;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Hits, misses and eviction of UniformPolynomialCache, and that no caller can modify the cached a.
+ */
+class UniformPolynomialCacheTest {
+
+    private static final ParameterSet SET = ParameterSet.N512;
+    private static final long ENTRYBYTESIZE = SET.n() * Integer.BYTES + 128L;
+
+    private final Engine engine = new Engine();
+    private final Mlkem mlkem = new Mlkem(SET.n(), SET.q());
+    private final byte[] xofBuffer = new byte[mlkem.uniformBufferSize(engine)];
+
+    @Test
+    void hitReturnsGeneratedPolynomial() {
+        UniformPolynomialCache cache = new UniformPolynomialCache(SET.n(), SET.q(), 4 * ENTRYBYTESIZE);
+        byte[] seed = seed(1);
+        Polynomial expected = newPolynomial();
+        mlkem.generateUniformPolynomialNtt(engine, expected, seed, xofBuffer);
+
+        Polynomial a = newPolynomial();
+        cache.get(engine, seed, xofBuffer, a);
+        assertArrayEquals(expected.getCoeffs(), a.getCoeffs());
+        a.getCoeffs()[0] ^= 1;  // the caller owns its copy
+        a.setDomain(Polynomial.Domain.COEFFICIENT);
+        cache.get(engine, seed, xofBuffer, a);
+        assertArrayEquals(expected.getCoeffs(), a.getCoeffs());
+        assertEquals(Polynomial.Domain.NTT, a.getDomain());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    void referencedEntriesSurviveEviction() {
+        UniformPolynomialCache cache = new UniformPolynomialCache(SET.n(), SET.q(), 2 * ENTRYBYTESIZE);
+        Polynomial a = newPolynomial();
+        cache.get(engine, seed(1), xofBuffer, a);
+        cache.get(engine, seed(2), xofBuffer, a);
+        cache.get(engine, seed(1), xofBuffer, a);  // referenced, so seed 2 goes first
+        cache.get(engine, seed(3), xofBuffer, a);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        long misses = cache.getMisses();
+        cache.get(engine, seed(1), xofBuffer, a);
+        assertEquals(misses, cache.getMisses());
+        cache.get(engine, seed(2), xofBuffer, a);
+        assertEquals(misses + 1, cache.getMisses());
+        assertTrue(cache.size() <= 2);
+    }
+
+    private static Polynomial newPolynomial() {
+        return new Polynomial(new int[SET.n()], SET.q(), Polynomial.Domain.NTT);
+    }
+
+    private static byte[] seed(int i) {
+        byte[] seed = new byte[Protocol.PUBLICSEEDBYTESIZE];
+        seed[0] = (byte) i;
+        return seed;
+    }
+}